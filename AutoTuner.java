@@ -0,0 +1,333 @@
+package edgedetection;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.UUID;
+
+import static edgedetection.EdgeDetection.CANNY_EDGE_DETECTION;
+
+/**
+ * Class choosing the fastest DetectionProfile for a workload on the current
+ * machine. Candidate tilings and the FFT crossover are timed on a synthetic
+ * image of the workload size for a bounded time. The winner is stored in a
+ * properties file under a key made of the CPU model, the core count and the
+ * workload, so later starts on the same kind of machine reuse it without
+ * measuring again.
+ */
+
+public class AutoTuner {
+
+    public static final long DEFAULT_TIME_BUDGET_MILLIS = 10_000;
+    public static final Path DEFAULT_PROFILE_FILE = Path.of(System.getProperty("user.home"),
+            ".edge-detection-profiles.properties");
+
+    private static final int[] TILE_SIZES = { 128, 256, 512 };
+    private static final int MAX_RUNS = 5;
+    private static final int MAX_CROSSOVER = 63;
+
+    private final EdgeDetection edgeDetection;
+    private final int width;
+    private final int height;
+    private final String selectedFilter;
+    private final double lowerThreshold;
+    private final double higherThreshold;
+    private final long timeBudgetMillis;
+    private final int cores;
+
+    /**
+     * @param edgeDetection        detector with the settings used later, its
+     *                             sigma is part of the workload
+     * @param width                typical image width of the workload
+     * @param height               typical image height of the workload
+     * @param selectedFilter
+     * @param lowerThresholdValue
+     * @param higherThresholdValue
+     * @param timeBudgetMillis     total time of the measurements
+     */
+
+    public AutoTuner(EdgeDetection edgeDetection, int width, int height, String selectedFilter,
+            double lowerThresholdValue, double higherThresholdValue, long timeBudgetMillis) {
+        if (!edgeDetection.isFilterSupported(selectedFilter)) {
+            throw new IllegalArgumentException("Unknown filter: " + selectedFilter);
+        }
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("Invalid workload size: " + width + "x" + height);
+        }
+        this.edgeDetection = edgeDetection;
+        this.width = width;
+        this.height = height;
+        this.selectedFilter = selectedFilter;
+        this.lowerThreshold = lowerThresholdValue;
+        this.higherThreshold = higherThresholdValue;
+        this.timeBudgetMillis = timeBudgetMillis;
+        this.cores = Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Method returns the profile stored for this machine and workload, or
+     * calibrates one and stores it
+     *
+     * @param profileFile
+     * @return profile
+     * @exception IOException
+     * @exception InterruptedException
+     */
+
+    public DetectionProfile loadOrCalibrate(Path profileFile) throws IOException, InterruptedException {
+        Properties profiles = new Properties();
+        if (Files.exists(profileFile)) {
+            try (InputStream input = Files.newInputStream(profileFile)) {
+                profiles.load(input);
+            }
+        }
+        String key = getProfileKey();
+        DetectionProfile profile = DetectionProfile.load(profiles, key);
+        if (profile != null) {
+            return profile;
+        }
+        profile = calibrate();
+        profile.store(profiles, key);
+
+        Path temp = profileFile.resolveSibling(profileFile.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try (OutputStream output = Files.newOutputStream(temp)) {
+            profiles.store(output, "Edge detection profiles");
+        }
+        try {
+            Files.move(temp, profileFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, profileFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return profile;
+    }
+
+    /**
+     * Method times every candidate tiling and Canny engine and returns the
+     * fastest, with the FFT crossover measured by measureFftCrossover. Three
+     * quarters of the time budget go to the candidates: every candidate gets
+     * an equal share and runs at least once; candidates left when the budget
+     * is spent are not measured.
+     *
+     * @return fastest profile
+     * @exception InterruptedException
+     */
+
+    public DetectionProfile calibrate() throws InterruptedException {
+        DetectionProfile fastest = chooseTiling(timeBudgetMillis * 3 / 4);
+        return new DetectionProfile(fastest.getTileSize(), fastest.getThreads(),
+                measureFftCrossover(timeBudgetMillis / 4), fastest.isLineBuffered());
+    }
+
+    private DetectionProfile chooseTiling(long budgetMillis) throws InterruptedException {
+        List<DetectionProfile> candidates = getCandidates();
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        BufferedImage image = createSyntheticImage(width, height);
+        long deadline = System.nanoTime() + budgetMillis * 1_000_000;
+        long slice = budgetMillis * 1_000_000 / candidates.size();
+
+        // warm up the JIT so the first candidate is not measured cold
+        DetectionProfile.SERIAL.detect(edgeDetection, image, selectedFilter, lowerThreshold, higherThreshold);
+
+        boolean lineBuffered = edgeDetection.isLineBuffered();
+        DetectionProfile fastest = null;
+        long fastestNanos = Long.MAX_VALUE;
+        try {
+            for (DetectionProfile candidate : candidates) {
+                if (fastest != null && System.nanoTime() > deadline) {
+                    break;
+                }
+                edgeDetection.setLineBuffered(candidate.isLineBuffered());
+                long candidateStart = System.nanoTime();
+                long best = Long.MAX_VALUE;
+                for (int run = 0; run < MAX_RUNS && (run == 0 || System.nanoTime() - candidateStart < slice);
+                        run++) {
+                    long start = System.nanoTime();
+                    candidate.detect(edgeDetection, image, selectedFilter, lowerThreshold, higherThreshold);
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                if (best < fastestNanos) {
+                    fastest = candidate;
+                    fastestNanos = best;
+                }
+            }
+        } finally {
+            edgeDetection.setLineBuffered(lineBuffered);
+        }
+        return fastest;
+    }
+
+    /**
+     * Method times direct and FFT convolution of one channel of the workload
+     * size, at most 1024x1024, for growing odd mask sizes. Both run through
+     * the paths EdgeDetection uses for its border mode, so without one the
+     * direct side is Mix rather than Convolution.
+     *
+     * @param budgetMillis time after which no larger masks are tried
+     * @return smallest mask side for which the FFT was faster, or the side
+     *         after the last one tried
+     */
+
+    public int measureFftCrossover(long budgetMillis) {
+        double[][] channel = new double[Math.min(height, 1024)][Math.min(width, 1024)];
+        Random random = new Random(channel.length * 31L + channel[0].length);
+        for (double[] row : channel) {
+            for (int j = 0; j < row.length; j++) {
+                row[j] = random.nextInt(256);
+            }
+        }
+        long deadline = System.nanoTime() + budgetMillis * 1_000_000;
+        int side = 3;
+        for (; side <= MAX_CROSSOVER && System.nanoTime() < deadline; side += 2) {
+            double[][] kernel = new double[side][side];
+            for (double[] row : kernel) {
+                for (int j = 0; j < row.length; j++) {
+                    row[j] = random.nextGaussian();
+                }
+            }
+            long direct = Long.MAX_VALUE;
+            long fft = Long.MAX_VALUE;
+            for (int run = 0; run < 2; run++) {
+                long start = System.nanoTime();
+                edgeDetection.mixChannel(channel, channel.length, channel[0].length, kernel, false);
+                direct = Math.min(direct, System.nanoTime() - start);
+                start = System.nanoTime();
+                edgeDetection.mixChannel(channel, channel.length, channel[0].length, kernel, true);
+                fft = Math.min(fft, System.nanoTime() - start);
+            }
+            if (fft < direct) {
+                return side;
+            }
+        }
+        return side;
+    }
+
+    /**
+     * @return serial detection first, then tiled detection for every tile
+     *         size smaller than the image and thread counts up to the core
+     *         count, each also with the line-buffered engine when Canny runs
+     *         with the 5x5 kernel; only serial detection when the filter
+     *         needs the whole image, as with a sigma set
+     */
+
+    List<DetectionProfile> getCandidates() {
+        if (edgeDetection.needsWholeImage(selectedFilter)) {
+            return List.of(DetectionProfile.SERIAL);
+        }
+        List<DetectionProfile> tilings = new ArrayList<>();
+        tilings.add(DetectionProfile.SERIAL);
+        List<Integer> threadCounts = new ArrayList<>();
+        for (int threads = 2; threads < cores; threads *= 2) {
+            threadCounts.add(threads);
+        }
+        if (cores > 1) {
+            threadCounts.add(cores);
+        }
+        for (int tileSize : TILE_SIZES) {
+            if (tileSize >= Math.max(width, height)) {
+                continue;
+            }
+            for (int threads : threadCounts) {
+                tilings.add(new DetectionProfile(tileSize, threads));
+            }
+        }
+        if (!CANNY_EDGE_DETECTION.equals(selectedFilter) || edgeDetection.getSigma() != Canny.DEFAULT_SIGMA) {
+            return tilings;
+        }
+        List<DetectionProfile> candidates = new ArrayList<>();
+        for (DetectionProfile tiling : tilings) {
+            candidates.add(tiling);
+            candidates.add(new DetectionProfile(tiling.getTileSize(), tiling.getThreads(),
+                    FftConvolution.DEFAULT_CROSSOVER, true));
+        }
+        return candidates;
+    }
+
+    /**
+     * @return key of the profile of this machine and workload
+     */
+
+    public String getProfileKey() {
+        return getCpuModel() + "/" + cores + " cores/" + selectedFilter + "/" + width + "x" + height + "/sigma "
+                + edgeDetection.getSigma() + "/border " + edgeDetection.getBorderMode();
+    }
+
+    /**
+     * Method reads the CPU model from /proc/cpuinfo, falling back to the
+     * architecture on systems without it
+     *
+     * @return CPU model
+     */
+
+    static String getCpuModel() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/cpuinfo"), StandardCharsets.UTF_8)) {
+                if (line.startsWith("model name")) {
+                    return line.substring(line.indexOf(':') + 1).trim();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // not Linux, use the architecture
+        }
+        return System.getProperty("os.arch");
+    }
+
+    /**
+     * Method draws a reproducible image with gradients, shapes and noise, so
+     * that all stages of the algorithms have work similar to a photograph
+     *
+     * @param width
+     * @param height
+     * @return image
+     */
+
+    static BufferedImage createSyntheticImage(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(width * 31L + height);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setPaint(new GradientPaint(0, 0, Color.DARK_GRAY, width, height, Color.LIGHT_GRAY));
+            graphics.fillRect(0, 0, width, height);
+            int shapes = Math.max(8, width * height / 4096);
+            for (int k = 0; k < shapes; k++) {
+                graphics.setColor(new Color(random.nextInt(0x1000000)));
+                int x = random.nextInt(width);
+                int y = random.nextInt(height);
+                int w = 4 + random.nextInt(Math.max(1, width / 8));
+                int h = 4 + random.nextInt(Math.max(1, height / 8));
+                if (random.nextBoolean()) {
+                    graphics.fillRect(x, y, w, h);
+                } else {
+                    graphics.fillOval(x, y, w, h);
+                }
+            }
+        } finally {
+            graphics.dispose();
+        }
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(9) - 4;
+                int rgb = image.getRGB(x, y);
+                int r = Math.min(255, Math.max(0, ((rgb >> 16) & 0xff) + noise));
+                int g = Math.min(255, Math.max(0, ((rgb >> 8) & 0xff) + noise));
+                int b = Math.min(255, Math.max(0, (rgb & 0xff) + noise));
+                image.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        return image;
+    }
+}
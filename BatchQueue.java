@@ -0,0 +1,504 @@
+package edgedetection;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Class implementing a work queue in a directory shared by several worker
+ * processes, possibly on several machines. There is no broker: every state
+ * change is a single file operation that the file system makes atomic.
+ *
+ * Layout of the queue directory:
+ * queue.properties - filter, thresholds, output directory and lease time
+ * items/ID - path of one input image
+ * leases/ID/N - lease of generation N, created exclusively by the worker
+ * processing the item and holding its id, its modification time is refreshed
+ * while the work goes on
+ * done/ID, failed/ID - written to a temporary file and renamed into place
+ *
+ * The lease of the highest generation is the live one. A lease older than
+ * the lease time belongs to a crashed worker; it is taken over by creating
+ * the next generation, which only one worker can do, so a lease file is
+ * never reused by another owner. A worker whose generation is no longer the
+ * highest has lost the item and its renewals fail. Results are written to a
+ * temporary file and renamed over the output, so processing an item twice
+ * gives the same files.
+ */
+
+public class BatchQueue {
+
+    public static final long DEFAULT_LEASE_MILLIS = 60_000;
+
+    private static final String SETTINGS_FILE = "queue.properties";
+    private static final String ITEMS = "items";
+    private static final String LEASES = "leases";
+    private static final String DONE = "done";
+    private static final String FAILED = "failed";
+    private static final String OUTPUT_SUFFIX = "_edges.png";
+
+    private final Path queueDir;
+    private final Path outputDir;
+    private final String selectedFilter;
+    private final double lowerThreshold;
+    private final double higherThreshold;
+    private final double sigma;
+    private final long leaseMillis;
+
+    private BatchQueue(Path queueDir, Properties settings) {
+        this.queueDir = queueDir;
+        this.outputDir = Path.of(settings.getProperty("outputDir"));
+        this.selectedFilter = settings.getProperty("filter");
+        this.lowerThreshold = Double.parseDouble(settings.getProperty("lower"));
+        this.higherThreshold = Double.parseDouble(settings.getProperty("higher"));
+        this.sigma = Double.parseDouble(settings.getProperty("sigma", String.valueOf(Canny.DEFAULT_SIGMA)));
+        this.leaseMillis = Long.parseLong(settings.getProperty("leaseMillis", String.valueOf(DEFAULT_LEASE_MILLIS)));
+    }
+
+    /**
+     * Method creates a queue holding one item for every readable image in the
+     * input directory. Calling it again on the same directories adds only new
+     * images.
+     *
+     * @param queueDir
+     * @param inputDir
+     * @param outputDir
+     * @param selectedFilter
+     * @param lowerThresholdValue
+     * @param higherThresholdValue
+     * @param sigmaValue
+     * @param leaseMillis          time after which an unrefreshed lease expires
+     * @return queue
+     * @exception IOException
+     */
+
+    public static BatchQueue create(Path queueDir, Path inputDir, Path outputDir, String selectedFilter,
+            double lowerThresholdValue, double higherThresholdValue, double sigmaValue, long leaseMillis)
+            throws IOException {
+        if (!new EdgeDetection().isFilterSupported(selectedFilter)) {
+            throw new IllegalArgumentException("Unknown filter: " + selectedFilter);
+        }
+        Canny.checkSigma(sigmaValue);
+        for (String directory : new String[] { ITEMS, LEASES, DONE, FAILED }) {
+            Files.createDirectories(queueDir.resolve(directory));
+        }
+        Files.createDirectories(outputDir);
+
+        Properties settings = new Properties();
+        settings.setProperty("outputDir", outputDir.toAbsolutePath().toString());
+        settings.setProperty("filter", selectedFilter);
+        settings.setProperty("lower", String.valueOf(lowerThresholdValue));
+        settings.setProperty("higher", String.valueOf(higherThresholdValue));
+        settings.setProperty("sigma", String.valueOf(sigmaValue));
+        settings.setProperty("leaseMillis", String.valueOf(leaseMillis));
+        Path settingsTemp = queueDir.resolve(SETTINGS_FILE + "." + UUID.randomUUID() + ".tmp");
+        try (OutputStream output = Files.newOutputStream(settingsTemp)) {
+            settings.store(output, "Edge detection batch");
+        }
+        moveAtomically(settingsTemp, queueDir.resolve(SETTINGS_FILE));
+
+        List<String> suffixes = List.of(ImageIO.getReaderFileSuffixes());
+        try (DirectoryStream<Path> inputs = Files.newDirectoryStream(inputDir)) {
+            for (Path input : inputs) {
+                String name = input.getFileName().toString();
+                int dot = name.lastIndexOf('.');
+                if (!Files.isRegularFile(input) || dot < 0
+                        || !suffixes.contains(name.substring(dot + 1).toLowerCase())) {
+                    continue;
+                }
+                Path item = queueDir.resolve(ITEMS).resolve(name);
+                if (!Files.exists(item)) {
+                    writeAtomically(item, input.toAbsolutePath().toString());
+                }
+            }
+        }
+        return open(queueDir);
+    }
+
+    /**
+     * @param queueDir
+     * @return queue created earlier, possibly by another process
+     * @exception IOException
+     */
+
+    public static BatchQueue open(Path queueDir) throws IOException {
+        Properties settings = new Properties();
+        try (InputStream input = Files.newInputStream(queueDir.resolve(SETTINGS_FILE))) {
+            settings.load(input);
+        }
+        return new BatchQueue(queueDir, settings);
+    }
+
+    public String getSelectedFilter() {
+        return selectedFilter;
+    }
+
+    public double getLowerThreshold() {
+        return lowerThreshold;
+    }
+
+    public double getHigherThreshold() {
+        return higherThreshold;
+    }
+
+    public double getSigma() {
+        return sigma;
+    }
+
+    public long getLeaseMillis() {
+        return leaseMillis;
+    }
+
+    /**
+     * Method tries to take the next unfinished item that has no live lease
+     *
+     * @param workerId
+     * @return claimed item id, or null when nothing can be claimed now
+     * @exception IOException
+     */
+
+    public String claim(String workerId) throws IOException {
+        List<String> items = listItems();
+        // start at a worker-specific position so workers rarely race for the same item
+        int start = items.isEmpty() ? 0 : Math.floorMod(workerId.hashCode(), items.size());
+        for (int k = 0; k < items.size(); k++) {
+            String id = items.get((start + k) % items.size());
+            if (isFinished(id)) {
+                continue;
+            }
+            if (tryLease(id, workerId)) {
+                if (isFinished(id)) {
+                    release(id, workerId);
+                    continue;
+                }
+                return id;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Method refreshes the lease of an item being processed
+     *
+     * @param id
+     * @param workerId
+     * @return false when the lease was lost to another worker, the work on
+     *         the item should then stop
+     */
+
+    public boolean renew(String id, String workerId) {
+        try {
+            Path lease = ownLease(id, workerId);
+            if (lease == null) {
+                return false;
+            }
+            Files.setLastModifiedTime(lease, FileTime.fromMillis(System.currentTimeMillis()));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param id
+     * @return path of the input image of the item
+     * @exception IOException
+     */
+
+    public File getInput(String id) throws IOException {
+        return new File(new String(Files.readAllBytes(queueDir.resolve(ITEMS).resolve(id)),
+                StandardCharsets.UTF_8).trim());
+    }
+
+    /**
+     * Method writes the result of an item under a temporary name and renames
+     * it over the output, so repeated or concurrent processing is harmless
+     *
+     * @param id
+     * @param edges
+     * @param workerId
+     * @exception IOException
+     */
+
+    public void complete(String id, BufferedImage edges, String workerId) throws IOException {
+        Path output = outputDir.resolve(outputName(id));
+        Path temp = outputDir.resolve(outputName(id) + "." + UUID.randomUUID() + ".tmp");
+        ImageIO.write(edges, "png", temp.toFile());
+        moveAtomically(temp, output);
+        writeAtomically(queueDir.resolve(DONE).resolve(id), workerId + " " + System.currentTimeMillis());
+        release(id, workerId);
+    }
+
+    /**
+     * Method records that an item cannot be processed, it is not retried
+     *
+     * @param id
+     * @param workerId
+     * @param error
+     * @exception IOException
+     */
+
+    public void fail(String id, String workerId, Exception error) throws IOException {
+        writeAtomically(queueDir.resolve(FAILED).resolve(id), workerId + " " + error);
+        release(id, workerId);
+    }
+
+    /**
+     * Method gives up the lease of an item without finishing it, so another
+     * worker can claim it at once. A lease taken over by another worker is
+     * left alone.
+     *
+     * @param id
+     * @param workerId
+     * @exception IOException
+     */
+
+    public void release(String id, String workerId) throws IOException {
+        Path lease = ownLease(id, workerId);
+        if (lease != null) {
+            Files.deleteIfExists(lease);
+        }
+    }
+
+    /**
+     * @return summary of the queue as seen by all workers
+     * @exception IOException
+     */
+
+    public Status status() throws IOException {
+        Status status = new Status();
+        long now = System.currentTimeMillis();
+        for (String id : listItems()) {
+            status.total++;
+            Path done = queueDir.resolve(DONE).resolve(id);
+            if (Files.exists(done)) {
+                status.done++;
+                String worker = readOwner(done);
+                status.doneByWorker.merge(worker, 1, Integer::sum);
+            } else if (Files.exists(queueDir.resolve(FAILED).resolve(id))) {
+                status.failed++;
+            } else {
+                long generation = latestGeneration(id);
+                try {
+                    if (generation < 0) {
+                        status.pending++;
+                    } else if (now - Files.getLastModifiedTime(leaseFile(id, generation)).toMillis() > leaseMillis) {
+                        status.expired++;
+                    } else {
+                        status.leased++;
+                    }
+                } catch (NoSuchFileException e) {
+                    // taken over or released right now
+                    status.leased++;
+                }
+            }
+        }
+        return status;
+    }
+
+    /**
+     * Counters of a queue
+     */
+
+    public static class Status {
+        private int total;
+        private int done;
+        private int failed;
+        private int leased;
+        private int expired;
+        private int pending;
+        private final Map<String, Integer> doneByWorker = new TreeMap<>();
+
+        public int getTotal() {
+            return total;
+        }
+
+        public int getDone() {
+            return done;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        public int getLeased() {
+            return leased;
+        }
+
+        public int getExpired() {
+            return expired;
+        }
+
+        public int getPending() {
+            return pending;
+        }
+
+        /**
+         * @return true when every item is done or failed
+         */
+
+        public boolean isFinished() {
+            return done + failed == total;
+        }
+
+        public Map<String, Integer> getDoneByWorker() {
+            return Collections.unmodifiableMap(doneByWorker);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            text.append("total ").append(total).append(", done ").append(done).append(", failed ").append(failed)
+                    .append(", in progress ").append(leased).append(", expired leases ").append(expired)
+                    .append(", pending ").append(pending);
+            for (Map.Entry<String, Integer> worker : doneByWorker.entrySet()) {
+                text.append("\n  ").append(worker.getKey()).append(": ").append(worker.getValue());
+            }
+            return text.toString();
+        }
+    }
+
+    private List<String> listItems() throws IOException {
+        List<String> items = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(queueDir.resolve(ITEMS))) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (!name.endsWith(".tmp")) {
+                    items.add(name);
+                }
+            }
+        }
+        Collections.sort(items);
+        return items;
+    }
+
+    private boolean isFinished(String id) {
+        return Files.exists(queueDir.resolve(DONE).resolve(id)) || Files.exists(queueDir.resolve(FAILED).resolve(id));
+    }
+
+    /**
+     * Method creates the next lease generation exclusively when the item has
+     * no lease or only an expired one. Of several workers creating the same
+     * generation only one succeeds. A worker that read an outdated generation
+     * may still create a lower one than the live lease; it sees the higher
+     * generation afterwards and withdraws.
+     */
+
+    private boolean tryLease(String id, String workerId) throws IOException {
+        Files.createDirectories(queueDir.resolve(LEASES).resolve(id));
+        long current = latestGeneration(id);
+        if (current >= 0 && !isExpired(leaseFile(id, current))) {
+            return false;
+        }
+        Path lease = leaseFile(id, current + 1);
+        try {
+            Files.createFile(lease);
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        }
+        if (latestGeneration(id) != current + 1) {
+            Files.deleteIfExists(lease);
+            return false;
+        }
+        Files.write(lease, workerId.getBytes(StandardCharsets.UTF_8));
+        if (current >= 0) {
+            Files.deleteIfExists(leaseFile(id, current));
+        }
+        return true;
+    }
+
+    private boolean isExpired(Path lease) throws IOException {
+        try {
+            return System.currentTimeMillis() - Files.getLastModifiedTime(lease).toMillis() > leaseMillis;
+        } catch (NoSuchFileException e) {
+            // taken over by another worker in the meantime
+            return false;
+        }
+    }
+
+    /**
+     * @return live lease of the item if it belongs to the worker, else null
+     */
+
+    private Path ownLease(String id, String workerId) throws IOException {
+        long generation = latestGeneration(id);
+        if (generation < 0) {
+            return null;
+        }
+        Path lease = leaseFile(id, generation);
+        try {
+            String owner = new String(Files.readAllBytes(lease), StandardCharsets.UTF_8);
+            return owner.equals(workerId) ? lease : null;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return highest lease generation of the item, -1 when it has no lease
+     */
+
+    private long latestGeneration(String id) throws IOException {
+        long latest = -1;
+        try (DirectoryStream<Path> leases = Files.newDirectoryStream(queueDir.resolve(LEASES).resolve(id))) {
+            for (Path lease : leases) {
+                try {
+                    latest = Math.max(latest, Long.parseLong(lease.getFileName().toString()));
+                } catch (NumberFormatException e) {
+                    // not a lease
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return -1;
+        }
+        return latest;
+    }
+
+    private Path leaseFile(String id, long generation) {
+        return queueDir.resolve(LEASES).resolve(id).resolve(String.valueOf(generation));
+    }
+
+    private static String outputName(String id) {
+        int dot = id.lastIndexOf('.');
+        return (dot < 0 ? id : id.substring(0, dot)) + OUTPUT_SUFFIX;
+    }
+
+    private static String readOwner(Path marker) throws IOException {
+        String text = new String(Files.readAllBytes(marker), StandardCharsets.UTF_8).trim();
+        int space = text.indexOf(' ');
+        return space < 0 ? text : text.substring(0, space);
+    }
+
+    private static void writeAtomically(Path target, String text) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        Files.write(temp, text.getBytes(StandardCharsets.UTF_8));
+        moveAtomically(temp, target);
+    }
+
+    private static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
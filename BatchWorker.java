@@ -0,0 +1,147 @@
+package edgedetection;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class processing the items of a BatchQueue. Any number of workers, in the
+ * same or in different processes, can work on one queue. A worker returns
+ * once every item is done or failed, so it also waits for and takes over the
+ * items of workers that stopped refreshing their leases. A worker whose lease
+ * was taken over drops its result for that item.
+ */
+
+public class BatchWorker {
+
+    private final BatchQueue queue;
+    private final String workerId;
+    private final AtomicInteger processedCount = new AtomicInteger();
+
+    /**
+     * @param queue
+     * @param workerId name of the worker shown in the progress summary, unique
+     *                 among the workers of the queue
+     */
+
+    public BatchWorker(BatchQueue queue, String workerId) {
+        this.queue = queue;
+        this.workerId = workerId;
+    }
+
+    /**
+     * @return worker id made of the host name and process id
+     */
+
+    public static String defaultWorkerId() {
+        return ManagementFactory.getRuntimeMXBean().getName();
+    }
+
+    /**
+     * Method processes items with the given number of threads until the queue
+     * is finished
+     *
+     * @param threads
+     * @return number of items processed by this worker
+     * @exception IOException
+     * @exception InterruptedException
+     */
+
+    public int run(int threads) throws IOException, InterruptedException {
+        ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> loops = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                String threadId = threads == 1 ? workerId : workerId + "#" + t;
+                loops.add(executor.submit(() -> {
+                    processUntilFinished(threadId, heartbeat);
+                    return null;
+                }));
+            }
+            for (Future<Void> loop : loops) {
+                try {
+                    loop.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new IOException(e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            heartbeat.shutdownNow();
+        }
+        return processedCount.get();
+    }
+
+    private void processUntilFinished(String threadId, ScheduledExecutorService heartbeat)
+            throws IOException, InterruptedException {
+        long pollMillis = Math.max(100, queue.getLeaseMillis() / 4);
+        while (true) {
+            String id = queue.claim(threadId);
+            if (id == null) {
+                if (queue.status().isFinished()) {
+                    return;
+                }
+                // the remaining items are leased by others, wait for them to finish or expire
+                Thread.sleep(pollMillis);
+                continue;
+            }
+            long renewMillis = Math.max(1, queue.getLeaseMillis() / 3);
+            AtomicBoolean lost = new AtomicBoolean();
+            ScheduledFuture<?> renewal = heartbeat.scheduleAtFixedRate(() -> {
+                if (!lost.get() && !queue.renew(id, threadId)) {
+                    lost.set(true);
+                }
+            }, renewMillis, renewMillis, TimeUnit.MILLISECONDS);
+            try {
+                process(id, threadId, lost);
+            } finally {
+                renewal.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Method processes one item and records the result unless the lease was
+     * lost in the meantime, the new owner records it then
+     */
+
+    private void process(String id, String threadId, AtomicBoolean lost) throws IOException {
+        BufferedImage edges;
+        try {
+            BufferedImage image = ImageIO.read(queue.getInput(id));
+            if (image == null) {
+                throw new IOException("Cannot decode " + queue.getInput(id));
+            }
+            EdgeDetection edgeDetection = new EdgeDetection();
+            edgeDetection.setSigma(queue.getSigma());
+            edges = edgeDetection.detectEdgesImage(image, queue.getSelectedFilter(), queue.getLowerThreshold(),
+                    queue.getHigherThreshold());
+        } catch (IOException | RuntimeException e) {
+            if (!lost.get()) {
+                queue.fail(id, threadId, e);
+            }
+            return;
+        }
+        if (lost.get() || !queue.renew(id, threadId)) {
+            return;
+        }
+        queue.complete(id, edges, threadId);
+        processedCount.incrementAndGet();
+    }
+}
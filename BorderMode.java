@@ -0,0 +1,56 @@
+package edgedetection;
+
+/**
+ * Ways of reading pixels that lie outside the image when a kernel reaches
+ * past the border
+ */
+
+public enum BorderMode {
+
+    /**
+     * Border pixels are mirrored including the edge pixel: -1 reads 0, -2
+     * reads 1 and width reads width - 1
+     */
+    MIRROR,
+
+    /**
+     * The nearest edge pixel is repeated
+     */
+    CLAMP,
+
+    /**
+     * Pixels outside the image are 0
+     */
+    ZERO,
+
+    /**
+     * The image repeats periodically
+     */
+    WRAP;
+
+    /**
+     * Method maps an index along one axis into the image
+     *
+     * @param index  position that may lie outside [0, length)
+     * @param length size of the axis
+     * @return position inside the image, or -1 when ZERO reads a 0
+     */
+
+    public int remap(int index, int length) {
+        if (index >= 0 && index < length) {
+            return index;
+        }
+        switch (this) {
+            case MIRROR:
+                int period = 2 * length;
+                int folded = Math.floorMod(index, period);
+                return folded < length ? folded : period - 1 - folded;
+            case CLAMP:
+                return index < 0 ? 0 : length - 1;
+            case WRAP:
+                return Math.floorMod(index, length);
+            default:
+                return -1;
+        }
+    }
+}
@@ -6,6 +6,7 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.time.LocalTime;
+import java.util.Arrays;
 
 /**
  * Class for detect edges by Canny's algorithm
@@ -18,8 +19,27 @@ public class Canny {
             { 5. / 159, 12. / 159, 15. / 159, 12. / 159, 5. / 159 },
             { 4. / 159, 9. / 159, 12. / 159, 9. / 159, 4. / 159 },
             { 2. / 159, 4. / 159, 5. / 159, 4. / 159, 2. / 159 } };
+    /**
+     * Sigma value selecting the fixed 5x5 gaussianKernel (sigma about 1.4)
+     */
+    public static final double DEFAULT_SIGMA = 0;
+    public static final int MIN_FLAT_TILE_SIZE = 8;
+    /**
+     * Upper bound of |Gx| and |Gy| per unit of grayscale range: the Gaussian
+     * weights are positive and sum to 1, so the smoothed values stay within
+     * the range, and the positive weights of each gradient kernel sum to 4
+     */
+    private static final double GRADIENT_PER_RANGE = 4;
+    /**
+     * Allowance for rounding of the smoothed values
+     */
+    private static final double RANGE_ROUNDING_MARGIN = 1e-9;
     private double lowerThreshold;
     private double higherThreshold;
+    private double sigma;
+    private BorderMode borderMode = BorderMode.MIRROR;
+    private int flatTileSize;
+    private int skippedTileCount;
 
     /**
      * A method to set the higher and lower threshold values of the Canny class
@@ -28,8 +48,85 @@ public class Canny {
      * @param higherThresholdValue
      */
     public Canny(double lowerThresholdValue, double higherThresholdValue) {
+        this(lowerThresholdValue, higherThresholdValue, DEFAULT_SIGMA);
+    }
+
+    /**
+     * A method to set the threshold values and the sigma of the Gaussian
+     * smoothing. DEFAULT_SIGMA keeps the 5x5 gaussianKernel, any other value
+     * (at least RecursiveGaussian.MIN_SIGMA) smooths with RecursiveGaussian,
+     * whose cost does not grow with sigma.
+     * 
+     * @param lowerThresholdValue
+     * @param higherThresholdValue
+     * @param sigmaValue
+     */
+    public Canny(double lowerThresholdValue, double higherThresholdValue, double sigmaValue) {
+        checkSigma(sigmaValue);
         this.lowerThreshold = lowerThresholdValue;
         this.higherThreshold = higherThresholdValue;
+        this.sigma = sigmaValue;
+    }
+
+    /**
+     * A method to reject sigma values that are neither DEFAULT_SIGMA nor
+     * supported by RecursiveGaussian
+     * 
+     * @param sigmaValue
+     */
+    static void checkSigma(double sigmaValue) {
+        if (sigmaValue != DEFAULT_SIGMA && !(sigmaValue >= RecursiveGaussian.MIN_SIGMA)) {
+            throw new IllegalArgumentException("sigma must be " + DEFAULT_SIGMA + " or at least "
+                    + RecursiveGaussian.MIN_SIGMA + ": " + sigmaValue);
+        }
+    }
+
+    /**
+     * A method to choose how the kernels and the recursive Gaussian read
+     * pixels past the image border, BorderMode.MIRROR by default
+     * 
+     * @param borderModeValue
+     */
+    public void setBorderMode(BorderMode borderModeValue) {
+        this.borderMode = borderModeValue;
+    }
+
+    /**
+     * A method to enable the fast path for flat regions. The image is split
+     * into square tiles and the grayscale range of every tile and its
+     * neighbours is measured while converting to grayscale. A tile whose
+     * range is too small for any gradient to reach the lower threshold skips
+     * smoothing, gradient, suppression and connection and stays empty, so the
+     * result is identical to the full run. It applies to the 5x5 kernel with
+     * the MIRROR or CLAMP border, where a pixel only depends on its 3 pixel
+     * neighbourhood.
+     * 
+     * @param tileSize side of the tiles, at least MIN_FLAT_TILE_SIZE, or 0 to
+     *                 disable the fast path
+     */
+    public void setFlatTileSize(int tileSize) {
+        checkFlatTileSize(tileSize);
+        this.flatTileSize = tileSize;
+    }
+
+    /**
+     * A method to reject tile sizes that are neither 0 nor at least
+     * MIN_FLAT_TILE_SIZE
+     * 
+     * @param tileSize
+     */
+    static void checkFlatTileSize(int tileSize) {
+        if (tileSize != 0 && tileSize < MIN_FLAT_TILE_SIZE) {
+            throw new IllegalArgumentException("tileSize must be 0 or at least " + MIN_FLAT_TILE_SIZE + ": "
+                    + tileSize);
+        }
+    }
+
+    /**
+     * @return number of tiles skipped as flat by the last detection
+     */
+    public int getSkippedTileCount() {
+        return skippedTileCount;
     }
 
     /**
@@ -40,17 +137,262 @@ public class Canny {
      * @throws IOException
      */
     public File detectEdges(BufferedImage sourceImage) throws IOException {
+        return writeImage(detectEdgesImage(sourceImage));
+    }
+
+    /**
+     * A method which runs the algorithm and returns the edge map as an image
+     * kept in memory, without writing any file
+     * 
+     * @param sourceImage
+     * @return
+     */
+    public BufferedImage detectEdgesImage(BufferedImage sourceImage) {
+        return createImageFromMatrix(computeEdges(sourceImage));
+    }
+
+    /**
+     * A method which runs the algorithm and returns the edges as a bit-packed
+     * map, one bit per pixel
+     * 
+     * @param sourceImage
+     * @return
+     */
+    public EdgeMap detectEdgeMap(BufferedImage sourceImage) {
+        return EdgeMap.fromMatrix(computeEdges(sourceImage));
+    }
+
+    /**
+     * A method which runs the algorithm and returns only the edge pixels as a
+     * sparse list with their rounded direction and magnitude. The count, the
+     * bounding box and the density of edges per tile are collected while the
+     * list is filled, so no dense edge image is created.
+     * 
+     * @param sourceImage
+     * @param tileSize side of the tiles used for density statistics
+     * @return
+     */
+    public EdgeList detectEdgeList(BufferedImage sourceImage, int tileSize) {
+        Stages stages = computeStages(sourceImage);
+        return collectEdges(stages.thresholdFlags, stages.suppressedMagnitude, stages.direction, tileSize);
+    }
+
+    /**
+     * A method which runs the consecutive steps of the algorithm and returns
+     * the matrix of edge pixels (255) and background pixels (0)
+     * 
+     * @param sourceImage
+     * @return
+     */
+    private double[][] computeEdges(BufferedImage sourceImage) {
+        Stages stages = computeStages(sourceImage);
+        return checkWeakPixelConnection(stages.thresholdFlags, stages.suppressedMagnitude);
+    }
+
+    /**
+     * A method which runs the steps of the algorithm up to the strength flags
+     * 
+     * @param sourceImage
+     * @return
+     */
+    private Stages computeStages(BufferedImage sourceImage) {
         double[][][] pixelArray = convertToArray(sourceImage);
-        double[][] grayscaleArray = convertToGrayscale(pixelArray);
-        double[][] denoisedArray = applyKernel(grayscaleArray, gaussianKernel);
+        skippedTileCount = 0;
+        if (canSkipFlatTiles()) {
+            TileActivity activity = new TileActivity(sourceImage.getWidth(), sourceImage.getHeight(), flatTileSize);
+            double[][] grayscaleArray = convertToGrayscale(pixelArray, activity);
+            return computeActiveStages(grayscaleArray, activity);
+        }
+        double[][] grayscaleArray = convertToGrayscale(pixelArray, null);
+        double[][] denoisedArray = denoise(grayscaleArray);
         double[][] xGradient = applyKernel(denoisedArray, xGradientKernel);
         double[][] yGradient = applyKernel(denoisedArray, yGradientKernel);
         double[][] magnitude = computeMagnitude(xGradient, yGradient);
-        int[][] direction = computeDirection(xGradient, yGradient);
-        double[][] suppressedMagnitude = nonMaximumSuppression(direction, magnitude);
-        double[][] thresholdFlags = setStrengthFlag(suppressedMagnitude);
-        double[][] connected = checkWeakPixelConnection(thresholdFlags, suppressedMagnitude);
-        return createImageFromMatrix(connected);
+        Stages stages = new Stages();
+        stages.direction = computeDirection(xGradient, yGradient);
+        stages.suppressedMagnitude = nonMaximumSuppression(stages.direction, magnitude);
+        stages.thresholdFlags = setStrengthFlag(stages.suppressedMagnitude);
+        return stages;
+    }
+
+    /**
+     * A method to smooth the grayscale image with the 5x5 kernel or, when a
+     * sigma is set, with the recursive Gaussian
+     * 
+     * @param grayscaleArray
+     * @return
+     */
+    private double[][] denoise(double[][] grayscaleArray) {
+        if (sigma == DEFAULT_SIGMA) {
+            return applyKernel(grayscaleArray, gaussianKernel);
+        }
+        return new RecursiveGaussian(sigma).smooth(grayscaleArray, borderMode);
+    }
+
+    /**
+     * A method to check whether the flat tile fast path is enabled and can be
+     * proven safe for the current settings
+     * 
+     * @return
+     */
+    private boolean canSkipFlatTiles() {
+        return flatTileSize > 0 && sigma == DEFAULT_SIGMA && lowerThreshold > 0
+                && (borderMode == BorderMode.MIRROR || borderMode == BorderMode.CLAMP);
+    }
+
+    /**
+     * A method which runs the steps of the algorithm up to the strength flags
+     * only in tiles that may contain an edge. Smoothing is computed in those
+     * tiles and their neighbours, gradients one pixel around them, so every
+     * value read by the suppression is the same as in the full run.
+     * 
+     * @param grayscaleArray
+     * @param activity
+     * @return
+     */
+    private Stages computeActiveStages(double[][] grayscaleArray, TileActivity activity) {
+        int width = grayscaleArray.length;
+        int height = grayscaleArray[0].length;
+        boolean[][] active = new boolean[activity.columns][activity.rows];
+        for (int tileX = 0; tileX < activity.columns; tileX++) {
+            for (int tileY = 0; tileY < activity.rows; tileY++) {
+                double bound = Math.sqrt(2) * GRADIENT_PER_RANGE
+                        * (activity.rangeAround(tileX, tileY) + RANGE_ROUNDING_MARGIN);
+                active[tileX][tileY] = bound >= lowerThreshold;
+                if (!active[tileX][tileY]) {
+                    skippedTileCount++;
+                }
+            }
+        }
+
+        double[][] denoisedArray = new double[width][height];
+        for (int tileX = 0; tileX < activity.columns; tileX++) {
+            for (int tileY = 0; tileY < activity.rows; tileY++) {
+                if (activity.hasActiveNeighbour(active, tileX, tileY)) {
+                    Rectangle tile = activity.tile(tileX, tileY, 0);
+                    Convolution.applyRegion(grayscaleArray, gaussianKernel, borderMode, denoisedArray, tile.x,
+                            tile.y, tile.x + tile.width, tile.y + tile.height);
+                }
+            }
+        }
+
+        double[][] xGradient = new double[width][height];
+        double[][] yGradient = new double[width][height];
+        double[][] magnitude = new double[width][height];
+        Stages stages = new Stages();
+        stages.direction = new int[width][height];
+        stages.suppressedMagnitude = new double[width][height];
+        for (int tileX = 0; tileX < activity.columns; tileX++) {
+            for (int tileY = 0; tileY < activity.rows; tileY++) {
+                if (active[tileX][tileY]) {
+                    Rectangle grown = activity.tile(tileX, tileY, 1);
+                    int toX = grown.x + grown.width;
+                    int toY = grown.y + grown.height;
+                    Convolution.applyRegion(denoisedArray, xGradientKernel, borderMode, xGradient, grown.x, grown.y,
+                            toX, toY);
+                    Convolution.applyRegion(denoisedArray, yGradientKernel, borderMode, yGradient, grown.x, grown.y,
+                            toX, toY);
+                    fillMagnitude(xGradient, yGradient, magnitude, grown.x, grown.y, toX, toY);
+                }
+            }
+        }
+        for (int tileX = 0; tileX < activity.columns; tileX++) {
+            for (int tileY = 0; tileY < activity.rows; tileY++) {
+                if (active[tileX][tileY]) {
+                    Rectangle tile = activity.tile(tileX, tileY, 0);
+                    int toX = tile.x + tile.width;
+                    int toY = tile.y + tile.height;
+                    fillDirection(xGradient, yGradient, stages.direction, tile.x, tile.y, toX, toY);
+                    fillSuppressed(stages.direction, magnitude, stages.suppressedMagnitude, tile.x, tile.y, toX, toY);
+                }
+            }
+        }
+        stages.thresholdFlags = setStrengthFlag(stages.suppressedMagnitude);
+        return stages;
+    }
+
+    /**
+     * Grayscale minimum and maximum of every tile, gathered while the image is
+     * converted to grayscale
+     */
+    private static class TileActivity {
+        private final int width;
+        private final int height;
+        private final int size;
+        private final int columns;
+        private final int rows;
+        private final double[][] min;
+        private final double[][] max;
+
+        private TileActivity(int width, int height, int size) {
+            this.width = width;
+            this.height = height;
+            this.size = size;
+            this.columns = (width + size - 1) / size;
+            this.rows = (height + size - 1) / size;
+            this.min = new double[columns][rows];
+            this.max = new double[columns][rows];
+            for (int i = 0; i < columns; i++) {
+                Arrays.fill(min[i], Double.POSITIVE_INFINITY);
+                Arrays.fill(max[i], Double.NEGATIVE_INFINITY);
+            }
+        }
+
+        private void add(int x, int y, double gray) {
+            int tileX = x / size;
+            int tileY = y / size;
+            if (gray < min[tileX][tileY]) {
+                min[tileX][tileY] = gray;
+            }
+            if (gray > max[tileX][tileY]) {
+                max[tileX][tileY] = gray;
+            }
+        }
+
+        /**
+         * Range of the tile and its eight neighbours, which contain every pixel
+         * the gradient of the tile depends on
+         */
+        private double rangeAround(int tileX, int tileY) {
+            double low = Double.POSITIVE_INFINITY;
+            double high = Double.NEGATIVE_INFINITY;
+            for (int i = Math.max(0, tileX - 1); i <= Math.min(columns - 1, tileX + 1); i++) {
+                for (int j = Math.max(0, tileY - 1); j <= Math.min(rows - 1, tileY + 1); j++) {
+                    low = Math.min(low, min[i][j]);
+                    high = Math.max(high, max[i][j]);
+                }
+            }
+            return high - low;
+        }
+
+        private boolean hasActiveNeighbour(boolean[][] active, int tileX, int tileY) {
+            for (int i = Math.max(0, tileX - 1); i <= Math.min(columns - 1, tileX + 1); i++) {
+                for (int j = Math.max(0, tileY - 1); j <= Math.min(rows - 1, tileY + 1); j++) {
+                    if (active[i][j]) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Rectangle of the tile grown by a margin and clipped to the image
+         */
+        private Rectangle tile(int tileX, int tileY, int margin) {
+            Rectangle tile = new Rectangle(tileX * size - margin, tileY * size - margin, size + 2 * margin,
+                    size + 2 * margin);
+            return tile.intersection(new Rectangle(width, height));
+        }
+    }
+
+    /**
+     * Intermediate results needed by the final hysteresis step
+     */
+    private static class Stages {
+        private int[][] direction;
+        private double[][] suppressedMagnitude;
+        private double[][] thresholdFlags;
     }
 
     /**
@@ -80,9 +422,10 @@ public class Canny {
      * A method to convert an image to grayscale
      * 
      * @param pixelArray
+     * @param activity collects the range of every tile, may be null
      * @return
      */
-    private double[][] convertToGrayscale(double[][][] pixelArray) {
+    private double[][] convertToGrayscale(double[][][] pixelArray, TileActivity activity) {
         int width = pixelArray.length;
         int height = pixelArray[0].length;
         double[][] grayscaleArray = new double[width][height];
@@ -90,6 +433,9 @@ public class Canny {
             for (int j = 0; j < height; j++) {
                 double gray = (pixelArray[i][j][0] + pixelArray[i][j][1] + pixelArray[i][j][2]) / 3;
                 grayscaleArray[i][j] = gray;
+                if (activity != null) {
+                    activity.add(i, j, gray);
+                }
             }
         }
         return grayscaleArray;
@@ -113,126 +459,15 @@ public class Canny {
     }
 
     /**
-     * A method to create a border using a mirror image of the image's border pixels
-     * 
-     * @param smallArray
-     * @param kernel
-     * @return
-     */
-    private double[][] createPaddedArray(double[][] smallArray, double[][] kernel) {
-        int smallArrayWidth = smallArray.length;
-        int smallArrayHeight = smallArray[0].length;
-        int kernelWidth = kernel.length;
-        int kernelHeight = kernel[0].length;
-        int gapWidth = (int) ((kernelWidth) / 2.0);
-        int gapHeight = (int) ((kernelHeight) / 2.0);
-        int width = smallArrayWidth + 2 * gapWidth;
-        int height = smallArrayHeight + 2 * gapHeight;
-
-        double[][] paddedArray = new double[width][height];
-        for (int i = 0; i < gapWidth; ++i) {
-            for (int j = 0; j < gapHeight; ++j) {
-                // top left corner
-                paddedArray[i][j] = smallArray[gapWidth - 1 - i][gapHeight - 1 - j];
-                // top right corner
-                paddedArray[width - i - 1][j] = smallArray[(smallArrayWidth) - gapWidth + i][gapHeight - 1 - j];
-                // bottom left corner
-                paddedArray[i][height - j - 1] = smallArray[gapWidth - i - 1][(smallArrayHeight) - gapHeight + i - 1];
-                // bottom right corner
-                paddedArray[width - i - 1][height - j
-                        - 1] = smallArray[(smallArrayWidth) - gapWidth + i][(smallArrayHeight) - gapHeight + i];
-            }
-        }
-        // top row
-        for (int i = gapWidth; i < smallArrayWidth + gapWidth; ++i) {
-            for (int j = 0; j < gapHeight; ++j) {
-                paddedArray[i][j] = smallArray[i - gapWidth][gapHeight - 1 - j];
-            }
-        }
-        // left row
-        for (int i = 0; i < gapWidth; ++i) {
-            for (int j = gapHeight; j < smallArrayHeight + gapHeight; ++j) {
-                paddedArray[i][j] = smallArray[gapWidth - 1 - i][j - gapHeight];
-            }
-        }
-        // right row
-        for (int i = 0; i < gapWidth; ++i) {
-            for (int j = gapHeight; j < smallArrayHeight + gapHeight; ++j) {
-                paddedArray[width - 1 - i][j] = smallArray[smallArrayWidth - gapWidth - 1 + i][j - gapHeight];
-            }
-        }
-        // bottom row
-        for (int i = gapWidth; i < smallArrayWidth + gapWidth; ++i) {
-            for (int j = 0; j < gapHeight; ++j) {
-                paddedArray[i][height - 1 - j] = smallArray[i - gapWidth][smallArrayHeight - gapHeight - 1 + j];
-            }
-        }
-        // inside
-        for (int i = gapWidth; i < smallArrayWidth + gapWidth; ++i) {
-            for (int j = gapHeight; j < smallArrayHeight + gapHeight; ++j) {
-                paddedArray[i][j] = smallArray[i - gapWidth][j - gapHeight];
-            }
-        }
-        return paddedArray;
-    }
-
-    /**
-     * Method to create padding and apply convolution for the entire image
+     * Method to apply convolution for the entire image, reading pixels past
+     * the border according to the border mode
      * 
      * @param pixelArray
      * @param kernel
      * @return
      */
     private double[][] applyKernel(double[][] pixelArray, double[][] kernel) {
-        double[][] biggerPixelArray = createPaddedArray(pixelArray, kernel);
-        return applyConvolution(biggerPixelArray, kernel);
-    }
-
-    /**
-     * Method to apply convolution to the entire image
-     * 
-     * @param input
-     * @param kernel
-     * @return
-     */
-    private double[][] applyConvolution(double[][] input, double[][] kernel) {
-        int width = input.length;
-        int height = input[0].length;
-        int kernelWidth = kernel.length;
-        int kernelHeight = kernel[0].length;
-        int gapWidth = (int) ((kernelWidth) / 2.0);
-        int gapHeight = (int) ((kernelHeight) / 2.0);
-        double[][] output = new double[width - 2 * gapWidth][height - 2 * gapHeight];
-        for (int i = gapWidth; i < width - gapWidth; ++i) {
-            for (int j = gapHeight; j < height - gapHeight; ++j) {
-                output[i - gapWidth][j - gapHeight] = returnConvValue(input, i, j, kernel);
-            }
-        }
-        return output;
-    }
-
-    /**
-     * A method to calculate the value of a specific pixel value,
-     * being the result of splicing an image with a mask.
-     * 
-     * @param input
-     * @param x
-     * @param y
-     * @param kernel
-     * @return
-     */
-    private double returnConvValue(double[][] input, int x, int y, double[][] kernel) {
-        double output = 0;
-        int kernelWidth = kernel.length;
-        int kernelHeight = kernel[0].length;
-        int gapWidth = (int) ((kernelWidth) / 2.0);
-        int gapHeight = (int) ((kernelHeight) / 2.0);
-        for (int i = 0; i < kernel.length; ++i) {
-            for (int j = 0; j < kernel[0].length; ++j) {
-                output = output + (input[x + i - gapWidth][y + j - gapHeight] * kernel[i][j]);
-            }
-        }
-        return output;
+        return Convolution.apply(pixelArray, kernel, borderMode);
     }
 
     /**
@@ -246,13 +481,30 @@ public class Canny {
         int width = xGradient.length;
         int height = xGradient[0].length;
         double[][] magnitude = new double[width][height];
-        for (int i = 0; i < width; i++) {
-            for (int j = 0; j < height; j++) {
+        fillMagnitude(xGradient, yGradient, magnitude, 0, 0, width, height);
+        return magnitude;
+    }
+
+    /**
+     * A method to calculate the intensity of an image gradient inside a
+     * rectangle
+     * 
+     * @param xGradient
+     * @param yGradient
+     * @param magnitude
+     * @param fromX
+     * @param fromY
+     * @param toX
+     * @param toY
+     */
+    private void fillMagnitude(double[][] xGradient, double[][] yGradient, double[][] magnitude, int fromX,
+            int fromY, int toX, int toY) {
+        for (int i = fromX; i < toX; i++) {
+            for (int j = fromY; j < toY; j++) {
                 double pixelMagnitude = Math.sqrt(Math.pow(xGradient[i][j], 2) + Math.pow(yGradient[i][j], 2));
                 magnitude[i][j] = pixelMagnitude;
             }
         }
-        return magnitude;
     }
 
     /**
@@ -266,16 +518,32 @@ public class Canny {
     private int[][] computeDirection(double[][] xGradient, double[][] yGradient) {
         int width = xGradient.length;
         int height = xGradient[0].length;
-        int roundedDirection = 0;
         int[][] direction = new int[width][height];
-        for (int i = 0; i < width; i++) {
-            for (int j = 0; j < height; j++) {
+        fillDirection(xGradient, yGradient, direction, 0, 0, width, height);
+        return direction;
+    }
+
+    /**
+     * A method to return the rounded direction of the edge inside a rectangle
+     * 
+     * @param xGradient
+     * @param yGradient
+     * @param direction
+     * @param fromX
+     * @param fromY
+     * @param toX
+     * @param toY
+     */
+    private void fillDirection(double[][] xGradient, double[][] yGradient, int[][] direction, int fromX, int fromY,
+            int toX, int toY) {
+        int roundedDirection = 0;
+        for (int i = fromX; i < toX; i++) {
+            for (int j = fromY; j < toY; j++) {
                 double pixelDirection = Math.atan2(yGradient[i][j], xGradient[i][j]);
                 roundedDirection = roundDirection(pixelDirection);
                 direction[i][j] = roundedDirection;
             }
         }
-        return direction;
     }
 
     /**
@@ -283,7 +551,7 @@ public class Canny {
      * @param pixelDirection direction value for a given pixel from -pi to pi
      * @return
      */
-    private int roundDirection(double pixelDirection) {
+    static int roundDirection(double pixelDirection) {
         double absDirection = Math.abs(pixelDirection);
         int roundedDirection = 0;
         absDirection = Math.toDegrees(absDirection);
@@ -311,9 +579,28 @@ public class Canny {
         int width = magnitude.length;
         int height = magnitude[0].length;
         double[][] suppressedMagnitude = createZerosArray(width, height);
+        fillSuppressed(direction, magnitude, suppressedMagnitude, 0, 0, width, height);
+        return suppressedMagnitude;
+    }
 
-        for (int i = 1; i < width - 1; ++i) {
-            for (int j = 1; j < height - 1; ++j) {
+    /**
+     * A method to keep the maximum pixels inside a rectangle, the outermost
+     * pixels of the image are never kept
+     * 
+     * @param direction
+     * @param magnitude
+     * @param suppressedMagnitude
+     * @param fromX
+     * @param fromY
+     * @param toX
+     * @param toY
+     */
+    private void fillSuppressed(int[][] direction, double[][] magnitude, double[][] suppressedMagnitude, int fromX,
+            int fromY, int toX, int toY) {
+        int width = magnitude.length;
+        int height = magnitude[0].length;
+        for (int i = Math.max(1, fromX); i < Math.min(width - 1, toX); ++i) {
+            for (int j = Math.max(1, fromY); j < Math.min(height - 1, toY); ++j) {
                 if (direction[i][j] == 0) {
                     if ((magnitude[i][j] > magnitude[i - 1][j]) && (magnitude[i][j] > magnitude[i + 1][j])) {
                         suppressedMagnitude[i][j] = magnitude[i][j];
@@ -333,7 +620,6 @@ public class Canny {
                 }
             }
         }
-        return suppressedMagnitude;
     }
 
     /**
@@ -380,28 +666,8 @@ public class Canny {
         double[][] connected = createZerosArray(width, height);
         for (int i = 1; i < width - 1; ++i) {
             for (int j = 1; j < height - 1; ++j) {
-                if (thresholdFlags[i][j] == 0) {
-                    connected[i][j] = 0;
-                } else if (thresholdFlags[i][j] == 1) {
+                if (isConnected(thresholdFlags, i, j)) {
                     connected[i][j] = 255;
-                } else if (thresholdFlags[i][j] == 0.5) {
-                    if ((thresholdFlags[i - 1][j] == 1) || (thresholdFlags[i + 1][j] == 1)) {
-                        connected[i][j] = 255;
-                    } else if ((thresholdFlags[i][j - 1] == 1) || (thresholdFlags[i][j + 1] == 1)) {
-                        connected[i][j] = 255;
-                    } else if ((thresholdFlags[i - 1][j - 1] == 1) || (thresholdFlags[i + 1][j + 1] == 1)) {
-                        connected[i][j] = 255;
-                    } else if ((thresholdFlags[i - 1][j + 1] == 1) || (thresholdFlags[i + 1][j - 1] == 1)) {
-                        connected[i][j] = 255;
-                    }
-                }
-            }
-        }
-
-        for (int i = 1; i < width - 1; ++i) {
-            for (int j = 1; j < height - 1; ++j) {
-                if (connected[i][j] == 0.5) {
-                    connected[i][j] = 0;
                 }
             }
         }
@@ -415,13 +681,60 @@ public class Canny {
     }
 
     /**
-     * A method to create an image file from an array of pixel values
+     * A method that checks whether a pixel is labeled 1, or labeled 0.5 with a
+     * strength of 1 in the immediate neighborhood
+     * 
+     * @param thresholdFlags
+     * @param i
+     * @param j
+     * @return
+     */
+    private boolean isConnected(double[][] thresholdFlags, int i, int j) {
+        if (thresholdFlags[i][j] == 1) {
+            return true;
+        } else if (thresholdFlags[i][j] == 0.5) {
+            return (thresholdFlags[i - 1][j] == 1) || (thresholdFlags[i + 1][j] == 1)
+                    || (thresholdFlags[i][j - 1] == 1) || (thresholdFlags[i][j + 1] == 1)
+                    || (thresholdFlags[i - 1][j - 1] == 1) || (thresholdFlags[i + 1][j + 1] == 1)
+                    || (thresholdFlags[i - 1][j + 1] == 1) || (thresholdFlags[i + 1][j - 1] == 1);
+        }
+        return false;
+    }
+
+    /**
+     * A method that applies the same connection rule as
+     * checkWeakPixelConnection, but appends the edge pixels to a sparse list
+     * instead of filling a matrix. Positions are shifted like in
+     * checkWeakPixelConnection so they match the edge image.
+     * 
+     * @param thresholdFlags
+     * @param suppressedMagnitude
+     * @param direction
+     * @param tileSize
+     * @return
+     */
+    private EdgeList collectEdges(double[][] thresholdFlags, double[][] suppressedMagnitude, int[][] direction,
+            int tileSize) {
+        int width = suppressedMagnitude.length;
+        int height = suppressedMagnitude[0].length;
+        EdgeList edgeList = new EdgeList(width, height, tileSize);
+        for (int j = 1; j < height - 1; ++j) {
+            for (int i = 1; i < width - 1; ++i) {
+                if (isConnected(thresholdFlags, i, j)) {
+                    edgeList.add(i - 1, j - 1, direction[i][j], suppressedMagnitude[i][j]);
+                }
+            }
+        }
+        return edgeList;
+    }
+
+    /**
+     * A method to create an image from an array of pixel values
      * 
      * @param array
      * @return
-     * @throws IOException
      */
-    private File createImageFromMatrix(double[][] array) throws IOException {
+    private BufferedImage createImageFromMatrix(double[][] array) {
         int width = array.length;
         int height = array[0].length;
         BufferedImage edgeImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
@@ -432,6 +745,17 @@ public class Canny {
                 edgeImage.setRGB(i, j, color.getRGB());
             }
         }
+        return edgeImage;
+    }
+
+    /**
+     * A method to write an edge image to a jpg file in the working directory
+     * 
+     * @param edgeImage
+     * @return
+     * @throws IOException
+     */
+    private File writeImage(BufferedImage edgeImage) throws IOException {
         String g = "outputimage" + LocalTime.now();
         g = g.replace('.', '_').replace(':', '_');
         g = ".\\" + g + ".jpg";
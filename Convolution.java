@@ -0,0 +1,133 @@
+package edgedetection;
+
+/**
+ * Class applying a kernel to a single-channel array indexed [x][y] without
+ * building a padded copy. The interior, where the kernel stays inside the
+ * array, is computed without any index checks; only the thin band along the
+ * border remaps its indices through a BorderMode.
+ */
+
+public class Convolution {
+
+    private Convolution() {
+    }
+
+    /**
+     * Method correlates the input with the kernel centred on every pixel,
+     * summing kernel rows in order like Canny always did, and returns an
+     * array of the input's size
+     *
+     * @param input
+     * @param kernel
+     * @param borderMode
+     * @return output
+     */
+
+    public static double[][] apply(double[][] input, double[][] kernel, BorderMode borderMode) {
+        int width = input.length;
+        int height = input[0].length;
+        int gapWidth = kernel.length / 2;
+        int gapHeight = kernel[0].length / 2;
+        double[][] output = new double[width][height];
+
+        int interiorLeft = Math.min(gapWidth, width);
+        int interiorRight = Math.max(interiorLeft, width - (kernel.length - 1 - gapWidth));
+        int interiorTop = Math.min(gapHeight, height);
+        int interiorBottom = Math.max(interiorTop, height - (kernel[0].length - 1 - gapHeight));
+
+        for (int x = interiorLeft; x < interiorRight; ++x) {
+            for (int y = interiorTop; y < interiorBottom; ++y) {
+                output[x][y] = interiorValue(input, x, y, kernel, gapWidth, gapHeight);
+            }
+        }
+        for (int x = 0; x < width; ++x) {
+            if (x < interiorLeft || x >= interiorRight) {
+                fillBorder(input, output, x, 0, height, kernel, borderMode);
+            } else {
+                fillBorder(input, output, x, 0, interiorTop, kernel, borderMode);
+                fillBorder(input, output, x, interiorBottom, height, kernel, borderMode);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Method computes the same values as apply, but only inside the rectangle
+     * [fromX, toX) x [fromY, toY), writing them into an existing output
+     *
+     * @param input
+     * @param kernel
+     * @param borderMode
+     * @param output
+     * @param fromX
+     * @param fromY
+     * @param toX
+     * @param toY
+     */
+
+    public static void applyRegion(double[][] input, double[][] kernel, BorderMode borderMode, double[][] output,
+            int fromX, int fromY, int toX, int toY) {
+        int width = input.length;
+        int height = input[0].length;
+        int gapWidth = kernel.length / 2;
+        int gapHeight = kernel[0].length / 2;
+        int interiorLeft = Math.min(gapWidth, width);
+        int interiorRight = Math.max(interiorLeft, width - (kernel.length - 1 - gapWidth));
+        int interiorTop = Math.min(gapHeight, height);
+        int interiorBottom = Math.max(interiorTop, height - (kernel[0].length - 1 - gapHeight));
+        for (int x = fromX; x < toX; ++x) {
+            boolean interiorColumn = x >= interiorLeft && x < interiorRight;
+            for (int y = fromY; y < toY; ++y) {
+                if (interiorColumn && y >= interiorTop && y < interiorBottom) {
+                    output[x][y] = interiorValue(input, x, y, kernel, gapWidth, gapHeight);
+                } else {
+                    output[x][y] = borderValue(input, x, y, kernel, gapWidth, gapHeight, borderMode);
+                }
+            }
+        }
+    }
+
+    private static void fillBorder(double[][] input, double[][] output, int x, int fromY, int toY,
+            double[][] kernel, BorderMode borderMode) {
+        int gapWidth = kernel.length / 2;
+        int gapHeight = kernel[0].length / 2;
+        for (int y = fromY; y < toY; ++y) {
+            output[x][y] = borderValue(input, x, y, kernel, gapWidth, gapHeight, borderMode);
+        }
+    }
+
+    private static double interiorValue(double[][] input, int x, int y, double[][] kernel, int gapWidth,
+            int gapHeight) {
+        double output = 0;
+        for (int i = 0; i < kernel.length; ++i) {
+            double[] column = input[x + i - gapWidth];
+            double[] kernelColumn = kernel[i];
+            int offset = y - gapHeight;
+            for (int j = 0; j < kernelColumn.length; ++j) {
+                output = output + (column[offset + j] * kernelColumn[j]);
+            }
+        }
+        return output;
+    }
+
+    private static double borderValue(double[][] input, int x, int y, double[][] kernel, int gapWidth,
+            int gapHeight, BorderMode borderMode) {
+        int width = input.length;
+        int height = input[0].length;
+        double output = 0;
+        for (int i = 0; i < kernel.length; ++i) {
+            int sourceX = borderMode.remap(x + i - gapWidth, width);
+            if (sourceX < 0) {
+                continue;
+            }
+            double[] column = input[sourceX];
+            for (int j = 0; j < kernel[i].length; ++j) {
+                int sourceY = borderMode.remap(y + j - gapHeight, height);
+                if (sourceY >= 0) {
+                    output = output + (column[sourceY] * kernel[i][j]);
+                }
+            }
+        }
+        return output;
+    }
+}
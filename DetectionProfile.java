@@ -0,0 +1,170 @@
+package edgedetection;
+
+import java.awt.image.BufferedImage;
+import java.util.Properties;
+
+/**
+ * Class describing how a detection is executed: on the whole image at once,
+ * or split into tiles processed by several threads, whether Canny runs line
+ * buffered, and from which mask size convolution goes through the FFT.
+ * Profiles are chosen by the AutoTuner and stored in a properties file.
+ */
+
+public class DetectionProfile {
+
+    /**
+     * Profile processing the whole image on the calling thread
+     */
+
+    public static final DetectionProfile SERIAL = new DetectionProfile(0, 1);
+
+    private final int tileSize;
+    private final int threads;
+    private final int fftCrossover;
+    private final boolean lineBuffered;
+
+    /**
+     * @param tileSize side of the tiles, 0 for the whole image
+     * @param threads  number of tiles processed at the same time
+     */
+
+    public DetectionProfile(int tileSize, int threads) {
+        this(tileSize, threads, FftConvolution.DEFAULT_CROSSOVER);
+    }
+
+    /**
+     * @param tileSize     side of the tiles, 0 for the whole image
+     * @param threads      number of tiles processed at the same time
+     * @param fftCrossover see EdgeDetection.setFftCrossover
+     */
+
+    public DetectionProfile(int tileSize, int threads, int fftCrossover) {
+        this(tileSize, threads, fftCrossover, false);
+    }
+
+    /**
+     * @param tileSize     side of the tiles, 0 for the whole image
+     * @param threads      number of tiles processed at the same time
+     * @param fftCrossover see EdgeDetection.setFftCrossover
+     * @param lineBuffered see EdgeDetection.setLineBuffered
+     */
+
+    public DetectionProfile(int tileSize, int threads, int fftCrossover, boolean lineBuffered) {
+        if (tileSize < 0) {
+            throw new IllegalArgumentException("tileSize must not be negative: " + tileSize);
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        this.tileSize = tileSize;
+        this.threads = threads;
+        this.fftCrossover = fftCrossover;
+        this.lineBuffered = lineBuffered;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getFftCrossover() {
+        return fftCrossover;
+    }
+
+    public boolean isLineBuffered() {
+        return lineBuffered;
+    }
+
+    public boolean isTiled() {
+        return tileSize > 0;
+    }
+
+    /**
+     * Method sets the FFT crossover and the Canny engine of the profile on a
+     * detector
+     *
+     * @param edgeDetection
+     */
+
+    public void configure(EdgeDetection edgeDetection) {
+        edgeDetection.setFftCrossover(fftCrossover);
+        edgeDetection.setLineBuffered(lineBuffered);
+    }
+
+    /**
+     * Method detects edges with the tiling of the profile, the result does
+     * not depend on it: filters needing the whole image, such as Canny with
+     * a sigma set, are never tiled
+     *
+     * @param edgeDetection
+     * @param image
+     * @param selectedFilter
+     * @param lowerThresholdValue
+     * @param higherThresholdValue
+     * @return edge image
+     * @exception InterruptedException
+     */
+
+    public BufferedImage detect(EdgeDetection edgeDetection, BufferedImage image, String selectedFilter,
+            double lowerThresholdValue, double higherThresholdValue) throws InterruptedException {
+        if (!isTiled()) {
+            return edgeDetection.detectEdgesImage(image, selectedFilter, lowerThresholdValue, higherThresholdValue);
+        }
+        return new TiledDetection(edgeDetection, tileSize).detect(image, selectedFilter, lowerThresholdValue,
+                higherThresholdValue, threads);
+    }
+
+    /**
+     * @param properties
+     * @param key        prefix of the stored entries
+     */
+
+    public void store(Properties properties, String key) {
+        properties.setProperty(key + ".tileSize", String.valueOf(tileSize));
+        properties.setProperty(key + ".threads", String.valueOf(threads));
+        properties.setProperty(key + ".fftCrossover", String.valueOf(fftCrossover));
+        properties.setProperty(key + ".lineBuffered", String.valueOf(lineBuffered));
+    }
+
+    /**
+     * @param properties
+     * @param key
+     * @return profile stored under the key, or null when there is none
+     */
+
+    public static DetectionProfile load(Properties properties, String key) {
+        String storedTileSize = properties.getProperty(key + ".tileSize");
+        String storedThreads = properties.getProperty(key + ".threads");
+        if (storedTileSize == null || storedThreads == null) {
+            return null;
+        }
+        String storedCrossover = properties.getProperty(key + ".fftCrossover",
+                String.valueOf(FftConvolution.DEFAULT_CROSSOVER));
+        return new DetectionProfile(Integer.parseInt(storedTileSize), Integer.parseInt(storedThreads),
+                Integer.parseInt(storedCrossover), Boolean.parseBoolean(properties.getProperty(key + ".lineBuffered")));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof DetectionProfile)) {
+            return false;
+        }
+        DetectionProfile profile = (DetectionProfile) other;
+        return tileSize == profile.tileSize && threads == profile.threads && fftCrossover == profile.fftCrossover
+                && lineBuffered == profile.lineBuffered;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((31 * tileSize + threads) * 31 + fftCrossover) * 2 + (lineBuffered ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return (isTiled() ? "tiles of " + tileSize + " on " + threads + " threads" : "serial")
+                + (lineBuffered ? ", line-buffered Canny" : "") + ", FFT from masks of " + fftCrossover;
+    }
+}
@@ -0,0 +1,244 @@
+package edgedetection;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static edgedetection.EdgeDetection.*;
+
+/**
+ * Class running many detections in parallel under a memory budget. The peak
+ * footprint of every job is estimated from the image size read from the file
+ * header, and a job only starts while the estimates of all running jobs fit
+ * in the budget. Images whose full detection would not fit at all are
+ * processed with TiledDetection instead. With BorderMode.WRAP or Canny with
+ * a sigma set, every output pixel may depend on the whole image, so such
+ * images are rejected rather than processed in tiles with a different
+ * result.
+ */
+
+public class DetectionScheduler implements AutoCloseable {
+
+    /**
+     * Estimated bytes per pixel of a full Canny run: the decoded image (4),
+     * the double[width][height][3] pixel array (about 48 with the per-pixel
+     * array headers), ten double or int planes from grayscale to the
+     * connected pixels (84) and the result image (4)
+     */
+    static final long CANNY_BYTES_PER_PIXEL = 140;
+    /**
+     * Extra plane copied by the recursive Gaussian
+     */
+    static final long SIGMA_BYTES_PER_PIXEL = 8;
+    /**
+     * Estimated bytes per pixel of LineBufferedCanny: the decoded image (4),
+     * the flag plane (1) and the result image (4)
+     */
+    static final long LINE_BUFFERED_BYTES_PER_PIXEL = 9;
+    /**
+     * Estimated bytes per pixel of the masks: the decoded image (4), three
+     * channel planes (24), the mixed channels with their temporary copies
+     * (32), the sum (8) and the result image (4)
+     */
+    static final long MASK_BYTES_PER_PIXEL = 72;
+    private static final long RESULT_BYTES_PER_PIXEL = 4;
+    private static final int MIN_TILE_SIZE = 64;
+
+    private final EdgeDetection edgeDetection;
+    private final long memoryBudget;
+    private final ExecutorService executor;
+    private long reservedBytes;
+
+    /**
+     * @param edgeDetection detector shared by all jobs
+     * @param memoryBudget  bytes the running jobs may use together
+     * @param threads       maximum number of jobs running at the same time
+     */
+
+    public DetectionScheduler(EdgeDetection edgeDetection, long memoryBudget, int threads) {
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("memoryBudget must be positive: " + memoryBudget);
+        }
+        this.edgeDetection = edgeDetection;
+        this.memoryBudget = memoryBudget;
+        this.executor = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Method queues a detection. The image size is read from the header now,
+     * the image itself is decoded once the job is admitted.
+     *
+     * @param imageFile
+     * @param selectedFilter
+     * @param lowerThresholdValue
+     * @param higherThresholdValue
+     * @return future edge image
+     * @exception IOException when the header cannot be read or the image does
+     *                        not fit in the budget even in tiles, which is
+     *                        always the case for a full detection too large
+     *                        for the budget when the filter needs the whole
+     *                        image
+     */
+
+    public Future<BufferedImage> submit(File imageFile, String selectedFilter, double lowerThresholdValue,
+            double higherThresholdValue) throws IOException {
+        if (!edgeDetection.isFilterSupported(selectedFilter)) {
+            throw new IllegalArgumentException("Unknown filter: " + selectedFilter);
+        }
+        Dimension size = readSize(imageFile);
+        long fullFootprint = estimateFootprint(size.width, size.height, selectedFilter);
+        if (fullFootprint <= memoryBudget) {
+            return executor.submit(() -> runAdmitted(fullFootprint,
+                    () -> edgeDetection.detectEdgesImage(ImageIO.read(imageFile), selectedFilter,
+                            lowerThresholdValue, higherThresholdValue)));
+        }
+
+        int tileSize = chooseTileSize(size.width, size.height, selectedFilter);
+        long tiledFootprint = estimateTiledFootprint(size.width, size.height, tileSize, selectedFilter);
+        TiledDetection tiledDetection = new TiledDetection(edgeDetection, tileSize);
+        return executor.submit(() -> runAdmitted(tiledFootprint,
+                () -> tiledDetection.detect(imageFile, size.width, size.height, selectedFilter, lowerThresholdValue,
+                        higherThresholdValue)));
+    }
+
+    /**
+     * @param width
+     * @param height
+     * @param selectedFilter
+     * @return estimated peak bytes of a full detection
+     */
+
+    public long estimateFootprint(int width, int height, String selectedFilter) {
+        return (long) width * height * bytesPerPixel(selectedFilter);
+    }
+
+    /**
+     * @param width
+     * @param height
+     * @param tileSize
+     * @param selectedFilter
+     * @return estimated peak bytes of a tiled detection: the result image and
+     *         one tile with its halo, or a full detection when the filter
+     *         needs the whole image, which TiledDetection does not tile
+     */
+
+    public long estimateTiledFootprint(int width, int height, int tileSize, String selectedFilter) {
+        if (edgeDetection.needsWholeImage(selectedFilter)) {
+            return (long) width * height * RESULT_BYTES_PER_PIXEL + estimateFootprint(width, height, selectedFilter);
+        }
+        long side = tileSize + 2L * edgeDetection.getRegionHalo(selectedFilter);
+        return (long) width * height * RESULT_BYTES_PER_PIXEL + side * side * bytesPerPixel(selectedFilter);
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return bytes currently reserved by running jobs
+     */
+
+    public synchronized long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    /**
+     * Method stops accepting jobs, queued ones still run
+     */
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private long bytesPerPixel(String selectedFilter) {
+        if (CANNY_EDGE_DETECTION.equals(selectedFilter) && edgeDetection.canUseLineBuffered()) {
+            return LINE_BUFFERED_BYTES_PER_PIXEL;
+        }
+        if (CANNY_EDGE_DETECTION.equals(selectedFilter)) {
+            return CANNY_BYTES_PER_PIXEL + (edgeDetection.getSigma() != Canny.DEFAULT_SIGMA ? SIGMA_BYTES_PER_PIXEL
+                    : 0);
+        }
+        return MASK_BYTES_PER_PIXEL;
+    }
+
+    /**
+     * Method picks the largest power of two tile, starting from
+     * TiledDetection.DEFAULT_TILE_SIZE, whose tiled estimate fits the budget
+     *
+     * @exception IOException when not even the smallest tile fits
+     */
+
+    private int chooseTileSize(int width, int height, String selectedFilter) throws IOException {
+        for (int tileSize = TiledDetection.DEFAULT_TILE_SIZE; tileSize >= MIN_TILE_SIZE; tileSize /= 2) {
+            if (estimateTiledFootprint(width, height, tileSize, selectedFilter) <= memoryBudget) {
+                return tileSize;
+            }
+        }
+        throw new IOException("Image of " + width + "x" + height + " does not fit in the memory budget of "
+                + memoryBudget + " bytes even in tiles"
+                + (edgeDetection.needsWholeImage(selectedFilter)
+                        ? ", which read the whole image with BorderMode.WRAP or a sigma set"
+                        : ""));
+    }
+
+    private interface Job {
+        BufferedImage run() throws IOException;
+    }
+
+    private BufferedImage runAdmitted(long footprint, Job job) throws IOException, InterruptedException {
+        reserve(footprint);
+        try {
+            return job.run();
+        } finally {
+            release(footprint);
+        }
+    }
+
+    private synchronized void reserve(long footprint) throws InterruptedException {
+        while (reservedBytes + footprint > memoryBudget) {
+            wait();
+        }
+        reservedBytes += footprint;
+    }
+
+    private synchronized void release(long footprint) {
+        reservedBytes -= footprint;
+        notifyAll();
+    }
+
+    /**
+     * Method reads the image size from the header without decoding pixels
+     *
+     * @param imageFile
+     * @return size
+     * @exception IOException
+     */
+
+    static Dimension readSize(File imageFile) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(imageFile)) {
+            if (input == null) {
+                throw new IOException("Cannot open " + imageFile);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("No image reader for " + imageFile);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+}
@@ -1,15 +1,24 @@
 package edgedetection;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.BiConsumer;
 
 /**
  * Class that processes images using the Scharr, Sobel and Prewitt algorithms
+ * and masks added with addFilter
  */
 
 public class EdgeDetection {
@@ -23,6 +32,15 @@ public class EdgeDetection {
     public static final String CANNY_EDGE_DETECTION = "Canny Algorithm";
     public static final double HIGHER_THRESHOLD = 0.15 * 294;
     public static final double LOWER_THRESHOLD = 0.03 * 294;
+    /**
+     * Margin processed around a region of interest so that every pixel inside
+     * it sees the same neighbourhood as in a full-image run. Canny reaches 6
+     * pixels (Gaussian 2, gradient 1, suppression 1, connection 1 and the one
+     * pixel shift of the result), the 3x3 masks 1 and larger masks added with
+     * addFilter half their size. The recursive Gaussian used with a sigma set
+     * reaches the whole image, so no margin is enough there.
+     */
+    public static final int REGION_HALO = 8;
     private static final double[][] VERTICAL_MASK = { { 1, 0, -1 }, { 1, 0, -1 }, { 1, 0, -1 } };
     private static final double[][] HORIZONTAL_MASK = { { 1, 1, 1 }, { 0, 0, 0 }, { -1, -1, -1 } };
     private static final double[][] SOBEL_MASK_VERTICAL = { { 1, 0, -1 }, { 2, 0, -2 }, { 1, 0, -1 } };
@@ -36,11 +54,131 @@ public class EdgeDetection {
      */
 
     private final HashMap<String, double[][]> maskMap;
+    private double sigma = Canny.DEFAULT_SIGMA;
+    private BorderMode borderMode;
+    private int flatTileSize;
+    private int lastSkippedTileCount;
+    private int fftCrossover = FftConvolution.DEFAULT_CROSSOVER;
+    private boolean lineBuffered;
 
     public EdgeDetection() {
         maskMap = buildMaskMap();
     }
 
+    /**
+     * Method sets the sigma of the Gaussian smoothing used by the Canny
+     * algorithm, Canny.DEFAULT_SIGMA keeps the 5x5 kernel
+     * 
+     * @param sigmaValue
+     */
+
+    public void setSigma(double sigmaValue) {
+        Canny.checkSigma(sigmaValue);
+        this.sigma = sigmaValue;
+    }
+
+    public double getSigma() {
+        return sigma;
+    }
+
+    /**
+     * Method sets how both Canny and the masks read pixels past the image
+     * border. The default, null, keeps the mirrored border of Canny and the
+     * zeroed output border of the masks.
+     * 
+     * @param borderModeValue
+     */
+
+    public void setBorderMode(BorderMode borderModeValue) {
+        this.borderMode = borderModeValue;
+    }
+
+    public BorderMode getBorderMode() {
+        return borderMode;
+    }
+
+    /**
+     * Method enables skipping of flat tiles in the Canny algorithm, see
+     * Canny.setFlatTileSize
+     * 
+     * @param tileSize 0 disables skipping
+     */
+
+    public void setFlatTileSize(int tileSize) {
+        Canny.checkFlatTileSize(tileSize);
+        this.flatTileSize = tileSize;
+    }
+
+    /**
+     * @return number of flat tiles skipped by the last Canny detection
+     */
+
+    public int getLastSkippedTileCount() {
+        return lastSkippedTileCount;
+    }
+
+    /**
+     * Method adds a user-defined mask, for example a matched filter or a
+     * Gabor kernel. It is applied to every colour channel like the built-in
+     * masks.
+     * 
+     * @param name   filter name passed to detectEdges
+     * @param kernel mask indexed [row][column]
+     */
+
+    public void addFilter(String name, double[][] kernel) {
+        if (CANNY_EDGE_DETECTION.equals(name)) {
+            throw new IllegalArgumentException("The name is reserved: " + name);
+        }
+        if (kernel.length == 0 || kernel[0].length == 0) {
+            throw new IllegalArgumentException("Empty kernel for filter " + name);
+        }
+        double[][] copy = new double[kernel.length][];
+        for (int i = 0; i < kernel.length; i++) {
+            if (kernel[i].length != kernel[0].length) {
+                throw new IllegalArgumentException("Kernel rows of filter " + name + " differ in length");
+            }
+            copy[i] = kernel[i].clone();
+        }
+        maskMap.put(name, copy);
+    }
+
+    /**
+     * Method sets the mask size from which masks are applied through the
+     * fast Fourier transform instead of directly. The results agree up to
+     * rounding, which can change an output grey level by one.
+     * 
+     * @param kernelSide larger side of the smallest mask using FftConvolution
+     */
+
+    public void setFftCrossover(int kernelSide) {
+        if (kernelSide < 1) {
+            throw new IllegalArgumentException("kernelSide must be positive: " + kernelSide);
+        }
+        this.fftCrossover = kernelSide;
+    }
+
+    public int getFftCrossover() {
+        return fftCrossover;
+    }
+
+    /**
+     * Method selects LineBufferedCanny for the Canny algorithm. It gives the
+     * same result with much less memory traffic, and is used only where it
+     * applies: with the 5x5 kernel, without flat tile skipping and with any
+     * border mode but WRAP.
+     * 
+     * @param lineBufferedValue
+     */
+
+    public void setLineBuffered(boolean lineBufferedValue) {
+        this.lineBuffered = lineBufferedValue;
+    }
+
+    public boolean isLineBuffered() {
+        return lineBuffered;
+    }
+
     /**
      * @param bufferedImage
      * @param selectedFilter
@@ -51,20 +189,248 @@ public class EdgeDetection {
 
     public File detectEdges(BufferedImage bufferedImage, String selectedFilter, double lowerThresholdValue,
             double higherThresholdValue) throws IOException {
-        double[][] mixedPixels = new double[bufferedImage.getWidth()][bufferedImage.getHeight()];
-        File output = null;
-        if (selectedFilter.equals(CANNY_EDGE_DETECTION)) {
-            Canny cannyAlgorithm = new Canny(lowerThresholdValue, higherThresholdValue);
-            output = cannyAlgorithm.detectEdges(bufferedImage);
+        return writeImage(detectEdgesImage(bufferedImage, selectedFilter, lowerThresholdValue,
+                higherThresholdValue));
+    }
+
+    /**
+     * Method detects edges and returns the result as an image kept in memory,
+     * without writing any file
+     * 
+     * @param bufferedImage
+     * @param selectedFilter
+     * @param lowerThresholdValue
+     * @param higherThresholdValue
+     * @return output
+     * @exception IllegalArgumentException if the filter is not known
+     */
+
+    public BufferedImage detectEdgesImage(BufferedImage bufferedImage, String selectedFilter,
+            double lowerThresholdValue, double higherThresholdValue) {
+        BufferedImage output;
+        if (selectedFilter.equals(CANNY_EDGE_DETECTION) && canUseLineBuffered()) {
+            LineBufferedCanny cannyAlgorithm = new LineBufferedCanny(lowerThresholdValue, higherThresholdValue,
+                    borderMode != null ? borderMode : BorderMode.MIRROR);
+            output = cannyAlgorithm.detectEdgesImage(bufferedImage);
+            lastSkippedTileCount = 0;
+        } else if (selectedFilter.equals(CANNY_EDGE_DETECTION)) {
+            Canny cannyAlgorithm = new Canny(lowerThresholdValue, higherThresholdValue, sigma);
+            if (borderMode != null) {
+                cannyAlgorithm.setBorderMode(borderMode);
+            }
+            cannyAlgorithm.setFlatTileSize(flatTileSize);
+            output = cannyAlgorithm.detectEdgesImage(bufferedImage);
+            lastSkippedTileCount = cannyAlgorithm.getSkippedTileCount();
         } else {
-            double[][][] image = transformImageToArray(bufferedImage);
             double[][] filter = maskMap.get(selectedFilter);
-            mixedPixels = applyMix(bufferedImage.getWidth(), bufferedImage.getHeight(), image, filter);
+            if (filter == null) {
+                throw new IllegalArgumentException("Unknown filter: " + selectedFilter);
+            }
+            double[][][] image = transformImageToArray(bufferedImage);
+            double[][] mixedPixels = applyMix(bufferedImage.getWidth(), bufferedImage.getHeight(), image, filter);
             output = createImageFromMatrix(bufferedImage, mixedPixels);
         }
         return output;
     }
 
+    /**
+     * @return true when Canny runs on LineBufferedCanny
+     */
+
+    boolean canUseLineBuffered() {
+        return lineBuffered && sigma == Canny.DEFAULT_SIGMA && flatTileSize == 0 && borderMode != BorderMode.WRAP;
+    }
+
+    /**
+     * Method detects edges only inside a region of an image kept in memory.
+     * The region grown by REGION_HALO and clipped to the image is processed,
+     * so the result equals the matching part of a full-image run, including
+     * the mirrored borders at the true image edges. With BorderMode.WRAP or,
+     * for Canny, a sigma set, the whole image is processed instead.
+     * 
+     * @param bufferedImage
+     * @param selectedFilter
+     * @param lowerThresholdValue
+     * @param higherThresholdValue
+     * @param region
+     * @return edge image of the size of the region
+     */
+
+    public BufferedImage detectEdgesImage(BufferedImage bufferedImage, String selectedFilter,
+            double lowerThresholdValue, double higherThresholdValue, Rectangle region) {
+        Rectangle bounds = new Rectangle(bufferedImage.getWidth(), bufferedImage.getHeight());
+        Rectangle clipped = clipRegion(region, bounds);
+        Rectangle expanded = expandRegion(clipped, bounds, selectedFilter);
+        BufferedImage crop = bufferedImage.getSubimage(expanded.x, expanded.y, expanded.width, expanded.height);
+        BufferedImage edges = detectEdgesImage(crop, selectedFilter, lowerThresholdValue, higherThresholdValue);
+        return copyRegion(edges, clipped.x - expanded.x, clipped.y - expanded.y, clipped.width, clipped.height);
+    }
+
+    /**
+     * Method detects edges inside regions of an image file without decoding
+     * the rest of it. For every region only the region grown by REGION_HALO
+     * is decoded with ImageReadParam.setSourceRegion, so the result equals
+     * the matching part of a full-image run. With BorderMode.WRAP or, for
+     * Canny, a sigma set, the whole image is decoded for every region.
+     * 
+     * @param imageFile
+     * @param selectedFilter
+     * @param lowerThresholdValue
+     * @param higherThresholdValue
+     * @param regions
+     * @return edge images in the order of the regions
+     * @exception IOException
+     */
+
+    public List<BufferedImage> detectEdgesInRegions(File imageFile, String selectedFilter,
+            double lowerThresholdValue, double higherThresholdValue, Rectangle... regions) throws IOException {
+        List<BufferedImage> results = new ArrayList<>();
+        detectEdgesInRegions(imageFile, selectedFilter, lowerThresholdValue, higherThresholdValue,
+                Arrays.asList(regions), (region, edges) -> results.add(edges));
+        return results;
+    }
+
+    /**
+     * Method detects edges inside regions of an image file like the method
+     * above, but hands every result to the consumer as soon as it is ready,
+     * so only one region is held in memory at a time
+     * 
+     * @param imageFile
+     * @param selectedFilter
+     * @param lowerThresholdValue
+     * @param higherThresholdValue
+     * @param regions
+     * @param consumer             receives the region clipped to the image and
+     *                             its edge image
+     * @exception IOException
+     */
+
+    public void detectEdgesInRegions(File imageFile, String selectedFilter, double lowerThresholdValue,
+            double higherThresholdValue, List<Rectangle> regions, BiConsumer<Rectangle, BufferedImage> consumer)
+            throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(imageFile)) {
+            if (input == null) {
+                throw new IOException("Cannot open " + imageFile);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("No image reader for " + imageFile);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, false, true);
+                Rectangle bounds = new Rectangle(reader.getWidth(0), reader.getHeight(0));
+                for (Rectangle region : regions) {
+                    Rectangle clipped = clipRegion(region, bounds);
+                    Rectangle expanded = expandRegion(clipped, bounds, selectedFilter);
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    param.setSourceRegion(expanded);
+                    BufferedImage crop = reader.read(0, param);
+                    BufferedImage edges = detectEdgesImage(crop, selectedFilter, lowerThresholdValue,
+                            higherThresholdValue);
+                    consumer.accept(clipped, copyRegion(edges, clipped.x - expanded.x, clipped.y - expanded.y,
+                            clipped.width, clipped.height));
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Method checks whether the filter name is handled by detectEdges
+     * 
+     * @param selectedFilter
+     * @return
+     */
+
+    public boolean isFilterSupported(String selectedFilter) {
+        return CANNY_EDGE_DETECTION.equals(selectedFilter) || maskMap.containsKey(selectedFilter);
+    }
+
+    /**
+     * Method limits a region of interest to the image
+     * 
+     * @param region
+     * @param bounds
+     * @return clipped region
+     */
+
+    private static Rectangle clipRegion(Rectangle region, Rectangle bounds) {
+        Rectangle clipped = region.intersection(bounds);
+        if (clipped.isEmpty()) {
+            throw new IllegalArgumentException("Region " + region + " lies outside the image " + bounds);
+        }
+        return clipped;
+    }
+
+    /**
+     * Method grows a region by the halo of the filter on every side, but not
+     * past the image, so true image edges keep their own border handling.
+     * When the filter needs the whole image, the region grows to it.
+     * 
+     * @param region
+     * @param bounds
+     * @param selectedFilter
+     * @return expanded region
+     */
+
+    Rectangle expandRegion(Rectangle region, Rectangle bounds, String selectedFilter) {
+        if (needsWholeImage(selectedFilter)) {
+            return bounds;
+        }
+        Rectangle expanded = new Rectangle(region);
+        int halo = getRegionHalo(selectedFilter);
+        expanded.grow(halo, halo);
+        return expanded.intersection(bounds);
+    }
+
+    /**
+     * Method checks whether every output pixel may depend on the whole image:
+     * with BorderMode.WRAP the border reads the opposite side, and the
+     * recursive Gaussian of Canny with a sigma set has infinite support, so
+     * any margin changes its values slightly and flips suppression ties
+     *
+     * @param selectedFilter
+     * @return true when no part of the result can be computed from a region
+     */
+
+    boolean needsWholeImage(String selectedFilter) {
+        return borderMode == BorderMode.WRAP
+                || (CANNY_EDGE_DETECTION.equals(selectedFilter) && sigma != Canny.DEFAULT_SIGMA);
+    }
+
+    /**
+     * @param selectedFilter
+     * @return margin needed around a region of interest for the filter, when
+     *         it does not need the whole image
+     */
+
+    int getRegionHalo(String selectedFilter) {
+        double[][] filter = maskMap.get(selectedFilter);
+        if (filter != null) {
+            return Math.max(REGION_HALO, Math.max(filter.length, filter[0].length) / 2);
+        }
+        return REGION_HALO;
+    }
+
+    /**
+     * Method copies a part of an image into a new image
+     * 
+     * @param image
+     * @param x
+     * @param y
+     * @param width
+     * @param height
+     * @return part
+     */
+
+    private static BufferedImage copyRegion(BufferedImage image, int x, int y, int width, int height) {
+        BufferedImage part = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        part.setRGB(0, 0, width, height, image.getRGB(x, y, width, height, null, 0, width), 0, width);
+        return part;
+    }
+
     /**
      * Method changes image to vector
      * 
@@ -99,10 +465,9 @@ public class EdgeDetection {
      */
 
     private double[][] applyMix(int width, int height, double[][][] image, double[][] filter) {
-        edgedetection.Mix mix = new edgedetection.Mix();
-        double[][] redMix = mix.mixNext(image[0], height, width, filter, 3, 3);
-        double[][] greenMix = mix.mixNext(image[1], height, width, filter, 3, 3);
-        double[][] blueMix = mix.mixNext(image[2], height, width, filter, 3, 3);
+        double[][] redMix = mixChannel(image[0], height, width, filter);
+        double[][] greenMix = mixChannel(image[1], height, width, filter);
+        double[][] blueMix = mixChannel(image[2], height, width, filter);
         double[][] finalMix = new double[redMix.length][redMix[0].length];
         for (int i = 0; i < redMix.length; i++) {
             for (int j = 0; j < redMix[i].length; j++) {
@@ -112,17 +477,69 @@ public class EdgeDetection {
         return finalMix;
     }
 
+    /**
+     * The method applies a filter to one channel, directly or, from the FFT
+     * crossover on, through FftConvolution
+     * 
+     * @param channel
+     * @param rows
+     * @param columns
+     * @param filter
+     * @return mixed channel
+     */
+
+    private double[][] mixChannel(double[][] channel, int rows, int columns, double[][] filter) {
+        return mixChannel(channel, rows, columns, filter,
+                Math.max(filter.length, filter[0].length) >= fftCrossover);
+    }
+
+    /**
+     * The method applies a filter to one channel with the direct path of the
+     * current border mode or through FftConvolution, so the AutoTuner can time
+     * both. Without a border mode the border of the output where the filter
+     * does not fit is zeroed.
+     * 
+     * @param channel
+     * @param rows
+     * @param columns
+     * @param filter
+     * @param useFft
+     * @return mixed channel
+     */
+
+    double[][] mixChannel(double[][] channel, int rows, int columns, double[][] filter, boolean useFft) {
+        if (borderMode != null) {
+            return useFft ? FftConvolution.apply(channel, filter, borderMode)
+                    : Mix.mix2DBorder(channel, filter, borderMode);
+        }
+        if (!useFft && rows >= filter.length && columns >= filter[0].length) {
+            return new Mix().mixNext(channel, rows, columns, filter, filter.length, filter[0].length);
+        }
+        double[][] mixed = FftConvolution.apply(channel, filter, BorderMode.ZERO);
+        int top = filter.length / 2;
+        int bottom = rows - (filter.length - 1 - top);
+        int left = filter[0].length / 2;
+        int right = columns - (filter[0].length - 1 - left);
+        for (int i = 0; i < rows; i++) {
+            if (i < top || i >= bottom) {
+                Arrays.fill(mixed[i], 0);
+            } else {
+                Arrays.fill(mixed[i], 0, Math.min(left, columns), 0);
+                Arrays.fill(mixed[i], Math.max(right, 0), columns, 0);
+            }
+        }
+        return mixed;
+    }
+
     /**
      * The method recreates an image from an array
      * 
      * @param originalImage
      * @param imageRGB
-     * @return outputFile o
-     * @exception IOException
-     * @see IOException
+     * @return createNewImage
      */
 
-    private File createImageFromMatrix(BufferedImage originalImage, double[][] imageRGB) throws IOException {
+    private BufferedImage createImageFromMatrix(BufferedImage originalImage, double[][] imageRGB) {
         BufferedImage createNewImage = new BufferedImage(originalImage.getWidth(), originalImage.getHeight(),
                 BufferedImage.TYPE_INT_RGB);
         for (int i = 0; i < imageRGB.length; i++) {
@@ -133,11 +550,24 @@ public class EdgeDetection {
                 createNewImage.setRGB(j, i, color.getRGB());
             }
         }
+        return createNewImage;
+    }
+
+    /**
+     * The method writes an image to a jpg file in the working directory
+     * 
+     * @param image
+     * @return outputFile
+     * @exception IOException
+     * @see IOException
+     */
+
+    public File writeImage(BufferedImage image) throws IOException {
         String g = "outputimage" + LocalTime.now();
         g = g.replace('.', '_').replace(':', '_');
         g = ".\\" + g + ".jpg";
         File outputFile = new File(g);
-        ImageIO.write(createNewImage, "jpg", outputFile);
+        ImageIO.write(image, "jpg", outputFile);
         return outputFile;
     }
 
@@ -0,0 +1,399 @@
+package edgedetection;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static edgedetection.EdgeDetection.*;
+
+/**
+ * Class that serves edge detection over HTTP using the JDK's built-in server.
+ * Every request runs on its own (virtual, when available) thread, while the
+ * decoding, detection and encoding are limited by a semaphore to the number
+ * of compute slots. Request bodies are limited to MAX_BODY_BYTES and images
+ * to MAX_PIXELS, checked from the header before any pixel is decoded.
+ *
+ * Endpoints:
+ * POST /detect?filter=...&lower=...&higher=...&sigma=...&format=png - image in
+ * the body,
+ * encoded edge map in the response
+ * GET /health - liveness check
+ * GET /metrics - request and timing counters in plain text
+ */
+
+public class EdgeDetectionServer {
+
+    public static final int DEFAULT_PORT = 8080;
+    /**
+     * Largest accepted request body
+     */
+    public static final int MAX_BODY_BYTES = 64 << 20;
+    /**
+     * Largest accepted image, about the size of an 8000x6000 photo
+     */
+    public static final long MAX_PIXELS = 48_000_000L;
+    private static final String DEFAULT_FORMAT = "png";
+
+    private final HttpServer server;
+    private final ExecutorService requestExecutor;
+    private final Semaphore computePermits;
+    private final int computeSlots;
+    private final EdgeDetection edgeDetection;
+    private volatile DetectionProfile profile = DetectionProfile.SERIAL;
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong failedRequestCount = new AtomicLong();
+    private final AtomicLong detectionCount = new AtomicLong();
+    private final AtomicLong detectionNanos = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicInteger activeDetections = new AtomicInteger();
+    private final AtomicInteger waitingDetections = new AtomicInteger();
+
+    /**
+     * Creates a server bound to the loopback interface
+     *
+     * @param port         0 picks a free port
+     * @param computeSlots number of detections allowed to run at the same time
+     * @exception IOException
+     */
+
+    public EdgeDetectionServer(int port, int computeSlots) throws IOException {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), computeSlots);
+    }
+
+    /**
+     * @param address
+     * @param computeSlots
+     * @exception IOException
+     */
+
+    public EdgeDetectionServer(InetSocketAddress address, int computeSlots) throws IOException {
+        if (computeSlots < 1) {
+            throw new IllegalArgumentException("computeSlots must be positive: " + computeSlots);
+        }
+        this.computeSlots = computeSlots;
+        this.computePermits = new Semaphore(computeSlots, true);
+        this.edgeDetection = new EdgeDetection();
+        this.requestExecutor = createRequestExecutor();
+        this.server = HttpServer.create(address, 0);
+        server.setExecutor(requestExecutor);
+        server.createContext("/detect", this::handleDetect);
+        server.createContext("/health", this::handleHealth);
+        server.createContext("/metrics", this::handleMetrics);
+    }
+
+    /**
+     * Method sets how every detection is executed, see AutoTuner
+     *
+     * @param profileValue
+     */
+
+    public void setProfile(DetectionProfile profileValue) {
+        this.profile = profileValue;
+    }
+
+    public DetectionProfile getProfile() {
+        return profile;
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests and waits up to the given delay for running ones
+     *
+     * @param delaySeconds
+     */
+
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        requestExecutor.shutdown();
+        try {
+            requestExecutor.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the port the server is listening on
+     */
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Method creates a virtual-thread-per-task executor when the runtime
+     * provides one and falls back to a cached platform thread pool otherwise
+     *
+     * @return executor
+     */
+
+    private static ExecutorService createRequestExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private void handleDetect(HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                sendText(exchange, 405, "Use POST with the image in the request body\n");
+                return;
+            }
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            String filter = query.get("filter");
+            if (filter == null || !edgeDetection.isFilterSupported(filter)) {
+                sendText(exchange, 400, "Unknown filter: " + filter + "\n");
+                return;
+            }
+            double lowerThresholdValue = parseDouble(query.get("lower"), LOWER_THRESHOLD);
+            double higherThresholdValue = parseDouble(query.get("higher"), HIGHER_THRESHOLD);
+            double sigma = parseDouble(query.get("sigma"), Canny.DEFAULT_SIGMA);
+            Canny.checkSigma(sigma);
+            String format = query.getOrDefault("format", DEFAULT_FORMAT);
+            Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+            if (!writers.hasNext()) {
+                sendText(exchange, 400, "Unsupported format: " + format + "\n");
+                return;
+            }
+            String contentType = getContentType(writers.next());
+
+            String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+            if (contentLength != null && Long.parseLong(contentLength) > MAX_BODY_BYTES) {
+                sendText(exchange, 413, "Request body larger than " + MAX_BODY_BYTES + " bytes\n");
+                return;
+            }
+            byte[] body;
+            try (InputStream input = exchange.getRequestBody()) {
+                // a chunked body has no length, so read one byte past the limit to notice it
+                body = input.readNBytes(MAX_BODY_BYTES + 1);
+            }
+            if (body.length > MAX_BODY_BYTES) {
+                sendText(exchange, 413, "Request body larger than " + MAX_BODY_BYTES + " bytes\n");
+                return;
+            }
+
+            ByteArrayOutputStream encoded = detect(body, filter, lowerThresholdValue, higherThresholdValue, sigma,
+                    format);
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(200, encoded.size());
+            try (OutputStream responseBody = exchange.getResponseBody()) {
+                encoded.writeTo(responseBody);
+            }
+        } catch (RejectedRequestException e) {
+            sendError(exchange, e.status, e.getMessage() + "\n");
+        } catch (NumberFormatException e) {
+            sendError(exchange, 400, "Invalid number: " + e.getMessage() + "\n");
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage() + "\n");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            sendError(exchange, 503, "Interrupted\n");
+        } catch (IOException | RuntimeException e) {
+            failedRequestCount.incrementAndGet();
+            sendError(exchange, 500, "Detection failed: " + e + "\n");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Method decodes the image, detects its edges and encodes them once a
+     * compute slot is free, so the slots also bound the memory of decoded
+     * images
+     *
+     * @return encoded edge image
+     * @exception RejectedRequestException when the image cannot be read, is
+     *                                     too large or cannot be encoded
+     * @exception IOException
+     * @exception InterruptedException
+     */
+
+    private ByteArrayOutputStream detect(byte[] body, String filter, double lowerThresholdValue,
+            double higherThresholdValue, double sigma, String format)
+            throws RejectedRequestException, IOException, InterruptedException {
+        long queuedAt = System.nanoTime();
+        waitingDetections.incrementAndGet();
+        try {
+            computePermits.acquire();
+        } finally {
+            waitingDetections.decrementAndGet();
+        }
+        long startedAt = System.nanoTime();
+        waitNanos.addAndGet(startedAt - queuedAt);
+        activeDetections.incrementAndGet();
+        try {
+            BufferedImage source = decode(body);
+            DetectionProfile requestProfile = profile;
+            EdgeDetection requestDetection = new EdgeDetection();
+            requestDetection.setSigma(sigma);
+            requestProfile.configure(requestDetection);
+            BufferedImage edges = requestProfile.detect(requestDetection, source, filter, lowerThresholdValue,
+                    higherThresholdValue);
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            if (!ImageIO.write(edges, format, encoded)) {
+                throw new RejectedRequestException(415, "Format cannot encode the edge image: " + format);
+            }
+            return encoded;
+        } finally {
+            activeDetections.decrementAndGet();
+            detectionCount.incrementAndGet();
+            detectionNanos.addAndGet(System.nanoTime() - startedAt);
+            computePermits.release();
+        }
+    }
+
+    /**
+     * Method decodes a request body after checking the image size in its
+     * header
+     *
+     * @param body
+     * @return image
+     * @exception RejectedRequestException when the body is not a readable
+     *                                     image or has more than MAX_PIXELS
+     * @exception IOException
+     */
+
+    private static BufferedImage decode(byte[] body) throws RejectedRequestException, IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(body))) {
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers == null || !readers.hasNext()) {
+                throw new RejectedRequestException(400, "Request body is not a readable image");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                if (pixels > MAX_PIXELS) {
+                    throw new RejectedRequestException(413, "Image of " + reader.getWidth(0) + "x"
+                            + reader.getHeight(0) + " has more than " + MAX_PIXELS + " pixels");
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Request answered with an error status instead of an edge image
+     */
+
+    private static class RejectedRequestException extends Exception {
+        private final int status;
+
+        RejectedRequestException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private void handleHealth(HttpExchange exchange) throws IOException {
+        try {
+            sendText(exchange, 200, "OK\n");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try {
+            StringBuilder metrics = new StringBuilder();
+            metrics.append("requests_total ").append(requestCount.get()).append('\n');
+            metrics.append("requests_failed_total ").append(failedRequestCount.get()).append('\n');
+            metrics.append("detections_total ").append(detectionCount.get()).append('\n');
+            metrics.append("detections_active ").append(activeDetections.get()).append('\n');
+            metrics.append("detections_waiting ").append(waitingDetections.get()).append('\n');
+            metrics.append("compute_slots ").append(computeSlots).append('\n');
+            metrics.append("detection_seconds_total ").append(detectionNanos.get() / 1e9).append('\n');
+            metrics.append("wait_seconds_total ").append(waitNanos.get() / 1e9).append('\n');
+            sendText(exchange, 200, metrics.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(bytes);
+        }
+    }
+
+    /**
+     * @param writer
+     * @return MIME type the writer produces, for example image/jpeg for the
+     *         format names jpg and JPEG
+     */
+
+    private static String getContentType(ImageWriter writer) {
+        String[] types = writer.getOriginatingProvider().getMIMETypes();
+        return types != null && types.length > 0 ? types[0] : "application/octet-stream";
+    }
+
+    /**
+     * Method answers with an error unless the response headers were already
+     * sent, for example before the client disconnected while the image was
+     * written; the exchange is then only closed
+     */
+
+    private static void sendError(HttpExchange exchange, int status, String text) throws IOException {
+        if (exchange.getResponseCode() == -1) {
+            sendText(exchange, status, text);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int separator = pair.indexOf('=');
+            String key = separator < 0 ? pair : pair.substring(0, separator);
+            String value = separator < 0 ? "" : pair.substring(separator + 1);
+            query.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    private static double parseDouble(String text, double defaultValue) {
+        if (text == null || text.isEmpty()) {
+            return defaultValue;
+        }
+        return Double.parseDouble(text);
+    }
+}
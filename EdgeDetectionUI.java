@@ -1,12 +1,17 @@
 package edgedetection;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.Iterator;
 import static edgedetection.EdgeDetection.*;
 
 /**
@@ -103,17 +108,37 @@ public class EdgeDetectionUI {
             }
         });
 
+        JTextField sigma = new JTextField();
+        sigma.setPreferredSize(new Dimension(150, 40));
+        sigma.setFont(sansSerifBold);
+        sigma.setText("Sigma (Canny)");
+        sigma.setEditable(false);
+
+        sigma.addFocusListener(new FocusListener() {
+            @Override
+            public void focusLost(final FocusEvent pE) {
+            }
+
+            @Override
+            public void focusGained(final FocusEvent pE) {
+                sigma.selectAll();
+            }
+        });
+
         filterChoice.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
                 if (((String) filterChoice.getSelectedItem()).equals(CANNY_EDGE_DETECTION)) {
                     lowerThreshold.setEditable(true);
                     higherThreshold.setEditable(true);
+                    sigma.setEditable(true);
 
                 } else {
                     lowerThreshold.setEditable(false);
                     higherThreshold.setEditable(false);
+                    sigma.setEditable(false);
                     lowerThreshold.setText("Dolny próg (Canny)");
                     higherThreshold.setText("Górny próg (Canny)");
+                    sigma.setText("Sigma (Canny)");
                 }
             }
         });
@@ -125,6 +150,7 @@ public class EdgeDetectionUI {
         northPanel.add(chooseButton);
         northPanel.add(lowerThreshold);
         northPanel.add(higherThreshold);
+        northPanel.add(sigma);
         northPanel.add(detect);
 
         chooseButton.addActionListener(event -> {
@@ -164,13 +190,13 @@ public class EdgeDetectionUI {
                     higherThresholdValue = HIGHER_THRESHOLD;
                     higherThreshold.setText(String.valueOf(higherThresholdValue));
                 }
-                File mixedFile = edgeDetection.detectEdges(bufferedImage, (String) filterChoice.getSelectedItem(),
-                        lowerThresholdValue, higherThresholdValue);
-                destImage = new ImagePanel(mixedFile.getAbsolutePath());
-                mainPanel.removeAll();
-                mainPanel.add(sourceImage);
-                mainPanel.add(destImage);
-                mainPanel.updateUI();
+                double sigmaValue = readThreshold(sigma.getText());
+                if (sigmaValue < RecursiveGaussian.MIN_SIGMA) {
+                    sigmaValue = Canny.DEFAULT_SIGMA;
+                }
+                edgeDetection.setSigma(sigmaValue);
+                detectInBackground(bufferedImage, (String) filterChoice.getSelectedItem(), lowerThresholdValue,
+                        higherThresholdValue, detect);
             } catch (IOException e) {
                 System.out.println("Bląd detekcji krawędzi.");
                 throw new RuntimeException(e);
@@ -180,6 +206,75 @@ public class EdgeDetectionUI {
         return northPanel;
     }
 
+    /**
+     * Method runs the detection on an image pyramid outside the event thread.
+     * The coarse levels are shown scaled up as soon as they are ready and the
+     * full resolution result replaces them and is saved as before.
+     */
+
+    private void detectInBackground(BufferedImage bufferedImage, String selectedFilter, double lowerThresholdValue,
+            double higherThresholdValue, JButton detect) {
+        detect.setEnabled(false);
+        SwingWorker<File, Preview> worker = new SwingWorker<File, Preview>() {
+            @Override
+            protected File doInBackground() throws IOException {
+                ImagePyramid pyramid = new ImagePyramid(bufferedImage, ImagePyramid.DEFAULT_PREVIEW_SIZE);
+                BufferedImage edges = new PyramidDetection(edgeDetection).detect(pyramid, selectedFilter,
+                        lowerThresholdValue, higherThresholdValue, false, (level, scale, levelEdges) -> {
+                            if (level > 0) {
+                                publish(new Preview(levelEdges, scale));
+                            }
+                        });
+                return edgeDetection.writeImage(edges);
+            }
+
+            @Override
+            protected void process(java.util.List<Preview> previews) {
+                Preview preview = previews.get(previews.size() - 1);
+                showResult(new ImagePanel(preview.edges, preview.scale));
+            }
+
+            @Override
+            protected void done() {
+                detect.setEnabled(true);
+                try {
+                    showResult(new ImagePanel(get().getAbsolutePath()));
+                } catch (Exception e) {
+                    System.out.println("Bląd detekcji krawędzi.");
+                    e.printStackTrace();
+                }
+            }
+        };
+        worker.execute();
+    }
+
+    /**
+     * Edges of a coarse pyramid level handed from the worker thread to the
+     * event thread, which creates the panel showing them
+     */
+
+    private static class Preview {
+        private final BufferedImage edges;
+        private final int scale;
+
+        private Preview(BufferedImage edges, int scale) {
+            this.edges = edges;
+            this.scale = scale;
+        }
+    }
+
+    /**
+     * Method replaces the result panel
+     */
+
+    private void showResult(ImagePanel result) {
+        destImage = result;
+        mainPanel.removeAll();
+        mainPanel.add(sourceImage);
+        mainPanel.add(destImage);
+        mainPanel.updateUI();
+    }
+
     /**
      * Method retrieves threshold values for Canny algorithm
      * 
@@ -218,12 +313,21 @@ public class EdgeDetectionUI {
     }
 
     /**
-     * The class implements the image display panel and image loading method
+     * The class implements the image display panel and image loading method.
+     * Images are decoded with subsampling down to about the screen size and
+     * drawn through a cached render surface, repainting only the clip.
+     * Detection always reads the full resolution file again.
      */
 
     public class ImagePanel extends JPanel {
 
+        private static final int MIN_PANEL_WIDTH = 500;
+        private static final int MIN_PANEL_HEIGHT = 510;
+
         private BufferedImage image;
+        private int displayWidth;
+        private int displayHeight;
+        private VolatileImage surface;
         private String currentpath;
         public File imageFile;
 
@@ -238,16 +342,35 @@ public class EdgeDetectionUI {
             currentpath = sourceImage;
             imageFile = new File(sourceImage);
             try {
-                image = ImageIO.read(imageFile);
-
+                image = readSubsampled(imageFile);
+                if (image != null) {
+                    displayWidth = image.getWidth();
+                    displayHeight = image.getHeight();
+                }
             } catch (IOException e) {
                 System.err.println("Bląd odczytu obrazka.");
                 e.printStackTrace();
             }
+            setDisplaySize();
+        }
 
-            Dimension dimension = new Dimension(500, 510);
-            setPreferredSize(dimension);
+        /**
+         * The method shows an image kept in memory, enlarged by the given scale
+         * and then fitted to the screen the same way as a loaded file
+         * 
+         * @param image
+         * @param scale
+         */
 
+        public ImagePanel(BufferedImage image, int scale) {
+            super();
+            this.image = image;
+            int fullWidth = image.getWidth() * scale;
+            int fullHeight = image.getHeight() * scale;
+            int subsampling = displaySubsampling(fullWidth, fullHeight);
+            displayWidth = (fullWidth + subsampling - 1) / subsampling;
+            displayHeight = (fullHeight + subsampling - 1) / subsampling;
+            setDisplaySize();
         }
 
         /**
@@ -258,10 +381,93 @@ public class EdgeDetectionUI {
             return currentpath;
         }
 
+        /**
+         * The method decodes every n-th pixel of the file in both directions,
+         * with n chosen so that the image is not larger than the screen
+         * 
+         * @param file
+         * @return image or null if the format is not recognised
+         * @exception IOException
+         */
+
+        private BufferedImage readSubsampled(File file) throws IOException {
+            try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+                if (input == null) {
+                    throw new IOException("Cannot open " + file);
+                }
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+                if (!readers.hasNext()) {
+                    return null;
+                }
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(input, true, true);
+                    int subsampling = displaySubsampling(reader.getWidth(0), reader.getHeight(0));
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                    return reader.read(0, param);
+                } finally {
+                    reader.dispose();
+                }
+            }
+        }
+
+        /**
+         * @return the smallest subsampling that fits the image on the screen
+         */
+
+        private int displaySubsampling(int width, int height) {
+            Dimension screen = GraphicsEnvironment.isHeadless() ? new Dimension(1920, 1080)
+                    : Toolkit.getDefaultToolkit().getScreenSize();
+            int horizontal = (width + screen.width - 1) / screen.width;
+            int vertical = (height + screen.height - 1) / screen.height;
+            return Math.max(1, Math.max(horizontal, vertical));
+        }
+
+        private void setDisplaySize() {
+            setPreferredSize(new Dimension(Math.max(MIN_PANEL_WIDTH, displayWidth),
+                    Math.max(MIN_PANEL_HEIGHT, displayHeight)));
+        }
+
+        /**
+         * The method copies only the visible clip from the cached surface,
+         * recreating the surface when it is lost or incompatible
+         */
+
         @Override
         public void paintComponent(Graphics g) {
-            Graphics2D g2d = (Graphics2D) g;
-            g2d.drawImage(image, 0, 0, this);
+            if (image == null) {
+                return;
+            }
+            Rectangle clip = g.getClipBounds();
+            Rectangle area = new Rectangle(displayWidth, displayHeight);
+            clip = clip == null ? area : clip.intersection(area);
+            if (clip.isEmpty()) {
+                return;
+            }
+            GraphicsConfiguration configuration = getGraphicsConfiguration();
+            if (configuration == null) {
+                g.drawImage(image, 0, 0, displayWidth, displayHeight, this);
+                return;
+            }
+            do {
+                int status = surface == null ? VolatileImage.IMAGE_INCOMPATIBLE : surface.validate(configuration);
+                if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+                    surface = configuration.createCompatibleVolatileImage(displayWidth, displayHeight);
+                    renderSurface();
+                } else if (status == VolatileImage.IMAGE_RESTORED) {
+                    renderSurface();
+                }
+                g.drawImage(surface, clip.x, clip.y, clip.x + clip.width, clip.y + clip.height, clip.x, clip.y,
+                        clip.x + clip.width, clip.y + clip.height, this);
+            } while (surface.contentsLost());
+        }
+
+        private void renderSurface() {
+            Graphics2D g2d = surface.createGraphics();
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2d.drawImage(image, 0, 0, displayWidth, displayHeight, null);
+            g2d.dispose();
         }
     }
 }
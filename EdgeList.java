@@ -0,0 +1,247 @@
+package edgedetection;
+
+import java.util.Arrays;
+
+/**
+ * Class holding the edge pixels found by Canny as a sparse list of primitive
+ * arrays (x, y, rounded direction, magnitude), together with statistics
+ * gathered while the list is filled: count, bounding box and per-tile edge
+ * density. Coordinates are those of the edge image returned by detectEdges.
+ */
+
+public class EdgeList {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final int tileColumns;
+    private final int tileRows;
+    private final int[] tileCounts;
+    private int[] xs = new int[INITIAL_CAPACITY];
+    private int[] ys = new int[INITIAL_CAPACITY];
+    private int[] directions = new int[INITIAL_CAPACITY];
+    private double[] magnitudes = new double[INITIAL_CAPACITY];
+    private int size;
+    private int minX = Integer.MAX_VALUE;
+    private int minY = Integer.MAX_VALUE;
+    private int maxX = -1;
+    private int maxY = -1;
+
+    /**
+     * @param width    width of the image
+     * @param height   height of the image
+     * @param tileSize side of the square tiles used for density statistics
+     */
+
+    EdgeList(int width, int height, int tileSize) {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("tileSize must be positive: " + tileSize);
+        }
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.tileColumns = (width + tileSize - 1) / tileSize;
+        this.tileRows = (height + tileSize - 1) / tileSize;
+        this.tileCounts = new int[tileColumns * tileRows];
+    }
+
+    /**
+     * Method appends an edge pixel and updates the statistics
+     *
+     * @param x
+     * @param y
+     * @param direction one of 0, 45, 90, 135
+     * @param magnitude
+     */
+
+    void add(int x, int y, int direction, double magnitude) {
+        if (size == xs.length) {
+            int capacity = size * 2;
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            directions = Arrays.copyOf(directions, capacity);
+            magnitudes = Arrays.copyOf(magnitudes, capacity);
+        }
+        xs[size] = x;
+        ys[size] = y;
+        directions[size] = direction;
+        magnitudes[size] = magnitude;
+        size++;
+        minX = Math.min(minX, x);
+        minY = Math.min(minY, y);
+        maxX = Math.max(maxX, x);
+        maxY = Math.max(maxY, y);
+        tileCounts[(y / tileSize) * tileColumns + x / tileSize]++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getX(int index) {
+        checkIndex(index);
+        return xs[index];
+    }
+
+    public int getY(int index) {
+        checkIndex(index);
+        return ys[index];
+    }
+
+    public int getDirection(int index) {
+        checkIndex(index);
+        return directions[index];
+    }
+
+    public double getMagnitude(int index) {
+        checkIndex(index);
+        return magnitudes[index];
+    }
+
+    /**
+     * @return copy of the x coordinates trimmed to size
+     */
+
+    public int[] getXs() {
+        return Arrays.copyOf(xs, size);
+    }
+
+    /**
+     * @return copy of the y coordinates trimmed to size
+     */
+
+    public int[] getYs() {
+        return Arrays.copyOf(ys, size);
+    }
+
+    /**
+     * @return copy of the rounded directions trimmed to size
+     */
+
+    public int[] getDirections() {
+        return Arrays.copyOf(directions, size);
+    }
+
+    /**
+     * @return copy of the magnitudes trimmed to size
+     */
+
+    public double[] getMagnitudes() {
+        return Arrays.copyOf(magnitudes, size);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return smallest x of an edge pixel, or -1 when the list is empty
+     */
+
+    public int getMinX() {
+        return size == 0 ? -1 : minX;
+    }
+
+    /**
+     * @return smallest y of an edge pixel, or -1 when the list is empty
+     */
+
+    public int getMinY() {
+        return size == 0 ? -1 : minY;
+    }
+
+    /**
+     * @return largest x of an edge pixel, or -1 when the list is empty
+     */
+
+    public int getMaxX() {
+        return maxX;
+    }
+
+    /**
+     * @return largest y of an edge pixel, or -1 when the list is empty
+     */
+
+    public int getMaxY() {
+        return maxY;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getTileColumns() {
+        return tileColumns;
+    }
+
+    public int getTileRows() {
+        return tileRows;
+    }
+
+    /**
+     * @param tileX
+     * @param tileY
+     * @return number of edge pixels in the tile
+     */
+
+    public int getTileEdgeCount(int tileX, int tileY) {
+        checkTile(tileX, tileY);
+        return tileCounts[tileY * tileColumns + tileX];
+    }
+
+    /**
+     * @param tileX
+     * @param tileY
+     * @return fraction of the tile's pixels that are edges, tiles on the right
+     *         and bottom border are measured by their clipped area
+     */
+
+    public double getTileDensity(int tileX, int tileY) {
+        checkTile(tileX, tileY);
+        int tileWidth = Math.min(tileSize, width - tileX * tileSize);
+        int tileHeight = Math.min(tileSize, height - tileY * tileSize);
+        return (double) tileCounts[tileY * tileColumns + tileX] / ((long) tileWidth * tileHeight);
+    }
+
+    /**
+     * @return fraction of all pixels that are edges
+     */
+
+    public double getDensity() {
+        long area = (long) width * height;
+        return area == 0 ? 0 : (double) size / area;
+    }
+
+    /**
+     * Method converts the list to a bit-packed map
+     *
+     * @return edgeMap
+     */
+
+    public EdgeMap toEdgeMap() {
+        EdgeMap edgeMap = new EdgeMap(width, height);
+        for (int i = 0; i < size; i++) {
+            edgeMap.set(xs[i], ys[i]);
+        }
+        return edgeMap;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " outside list of size " + size);
+        }
+    }
+
+    private void checkTile(int tileX, int tileY) {
+        if (tileX < 0 || tileX >= tileColumns || tileY < 0 || tileY >= tileRows) {
+            throw new IndexOutOfBoundsException("Tile " + tileX + "," + tileY + " outside " + tileColumns + "x"
+                    + tileRows);
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package edgedetection;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Class holding a binary edge map as one long[] bitset per image row,
+ * one bit per pixel instead of a double per pixel
+ */
+
+public class EdgeMap {
+
+    private static final int EDGE_RGB = 0xFFFFFF;
+
+    private final int width;
+    private final int height;
+    private final long[][] rows;
+
+    /**
+     * Interface called for every edge pixel by forEachEdge
+     */
+
+    public interface PixelVisitor {
+        void visit(int x, int y);
+    }
+
+    /**
+     * Creates an empty edge map
+     *
+     * @param width
+     * @param height
+     */
+
+    public EdgeMap(int width, int height) {
+        if (width < 0 || height < 0) {
+            throw new IllegalArgumentException("Negative size: " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.rows = new long[height][(width + 63) >>> 6];
+    }
+
+    /**
+     * Method builds an edge map from a matrix indexed [x][y], as produced by
+     * Canny, where every non-zero value is an edge
+     *
+     * @param array
+     * @return edgeMap
+     */
+
+    public static EdgeMap fromMatrix(double[][] array) {
+        int width = array.length;
+        int height = width == 0 ? 0 : array[0].length;
+        EdgeMap edgeMap = new EdgeMap(width, height);
+        for (int i = 0; i < width; i++) {
+            for (int j = 0; j < height; j++) {
+                if (array[i][j] != 0) {
+                    edgeMap.set(i, j);
+                }
+            }
+        }
+        return edgeMap;
+    }
+
+    /**
+     * Method builds an edge map from an edge image, treating pixels brighter
+     * than half intensity as edges
+     *
+     * @param image
+     * @return edgeMap
+     */
+
+    public static EdgeMap fromImage(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        EdgeMap edgeMap = new EdgeMap(width, height);
+        int[] line = new int[width];
+        for (int j = 0; j < height; j++) {
+            image.getRGB(0, j, width, 1, line, 0, width);
+            for (int i = 0; i < width; i++) {
+                int rgb = line[i];
+                int gray = (((rgb >> 16) & 0xFF) + ((rgb >> 8) & 0xFF) + (rgb & 0xFF)) / 3;
+                if (gray >= 128) {
+                    edgeMap.set(i, j);
+                }
+            }
+        }
+        return edgeMap;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public boolean get(int x, int y) {
+        checkBounds(x, y);
+        return (rows[y][x >>> 6] & (1L << x)) != 0;
+    }
+
+    public void set(int x, int y) {
+        checkBounds(x, y);
+        rows[y][x >>> 6] |= 1L << x;
+    }
+
+    public void clear(int x, int y) {
+        checkBounds(x, y);
+        rows[y][x >>> 6] &= ~(1L << x);
+    }
+
+    /**
+     * @return number of edge pixels
+     */
+
+    public long cardinality() {
+        long count = 0;
+        for (long[] row : rows) {
+            for (long word : row) {
+                count += Long.bitCount(word);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param other
+     * @return pixels that are edges in both maps
+     */
+
+    public EdgeMap and(EdgeMap other) {
+        checkSameSize(other);
+        EdgeMap result = new EdgeMap(width, height);
+        for (int j = 0; j < height; j++) {
+            for (int w = 0; w < rows[j].length; w++) {
+                result.rows[j][w] = rows[j][w] & other.rows[j][w];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param other
+     * @return pixels that are edges in at least one map
+     */
+
+    public EdgeMap or(EdgeMap other) {
+        checkSameSize(other);
+        EdgeMap result = new EdgeMap(width, height);
+        for (int j = 0; j < height; j++) {
+            for (int w = 0; w < rows[j].length; w++) {
+                result.rows[j][w] = rows[j][w] | other.rows[j][w];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param other
+     * @return pixels where the two maps differ
+     */
+
+    public EdgeMap xor(EdgeMap other) {
+        checkSameSize(other);
+        EdgeMap result = new EdgeMap(width, height);
+        for (int j = 0; j < height; j++) {
+            for (int w = 0; w < rows[j].length; w++) {
+                result.rows[j][w] = rows[j][w] ^ other.rows[j][w];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Method calls the visitor for every edge pixel, row by row, skipping
+     * empty words
+     *
+     * @param visitor
+     */
+
+    public void forEachEdge(PixelVisitor visitor) {
+        for (int j = 0; j < height; j++) {
+            long[] row = rows[j];
+            for (int w = 0; w < row.length; w++) {
+                long word = row[w];
+                while (word != 0) {
+                    visitor.visit((w << 6) + Long.numberOfTrailingZeros(word), j);
+                    word &= word - 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Method recreates a black image with white edges
+     *
+     * @return edgeImage
+     */
+
+    public BufferedImage toImage() {
+        BufferedImage edgeImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        forEachEdge((x, y) -> edgeImage.setRGB(x, y, EDGE_RGB));
+        return edgeImage;
+    }
+
+    /**
+     * Method serializes the map as run lengths. The format is the width and
+     * the height followed, for every row, by alternating run lengths of
+     * non-edge and edge pixels starting with a (possibly empty) non-edge run.
+     * All numbers are unsigned LEB128 varints.
+     *
+     * @return encoded bytes
+     */
+
+    public byte[] toRunLength() {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        writeVarint(output, width);
+        writeVarint(output, height);
+        for (int j = 0; j < height; j++) {
+            int position = 0;
+            boolean edge = false;
+            while (position < width) {
+                int next = edge ? nextClearBit(j, position) : nextSetBit(j, position);
+                writeVarint(output, next - position);
+                position = next;
+                edge = !edge;
+            }
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Method reads a map written by toRunLength
+     *
+     * @param encoded
+     * @return edgeMap
+     */
+
+    public static EdgeMap fromRunLength(byte[] encoded) {
+        int[] cursor = { 0 };
+        int width = readVarint(encoded, cursor);
+        int height = readVarint(encoded, cursor);
+        EdgeMap edgeMap = new EdgeMap(width, height);
+        for (int j = 0; j < height; j++) {
+            int position = 0;
+            boolean edge = false;
+            while (position < width) {
+                int run = readVarint(encoded, cursor);
+                if (run > width - position) {
+                    throw new IllegalArgumentException("Run exceeds row " + j + " at byte " + cursor[0]);
+                }
+                if (edge) {
+                    edgeMap.setRange(j, position, position + run);
+                }
+                position += run;
+                edge = !edge;
+            }
+        }
+        return edgeMap;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (this == object) {
+            return true;
+        }
+        if (!(object instanceof EdgeMap)) {
+            return false;
+        }
+        EdgeMap other = (EdgeMap) object;
+        return width == other.width && height == other.height && Arrays.deepEquals(rows, other.rows);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * width + height) + Arrays.deepHashCode(rows);
+    }
+
+    private int nextSetBit(int y, int from) {
+        long[] row = rows[y];
+        int w = from >>> 6;
+        long word = row[w] & (-1L << from);
+        while (word == 0) {
+            if (++w == row.length) {
+                return width;
+            }
+            word = row[w];
+        }
+        return Math.min(width, (w << 6) + Long.numberOfTrailingZeros(word));
+    }
+
+    private int nextClearBit(int y, int from) {
+        long[] row = rows[y];
+        int w = from >>> 6;
+        long word = ~row[w] & (-1L << from);
+        while (word == 0) {
+            if (++w == row.length) {
+                return width;
+            }
+            word = ~row[w];
+        }
+        return Math.min(width, (w << 6) + Long.numberOfTrailingZeros(word));
+    }
+
+    private void setRange(int y, int from, int to) {
+        for (int x = from; x < to; x++) {
+            rows[y][x >>> 6] |= 1L << x;
+        }
+    }
+
+    private void checkBounds(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            throw new IndexOutOfBoundsException("Pixel " + x + "," + y + " outside " + width + "x" + height);
+        }
+    }
+
+    private void checkSameSize(EdgeMap other) {
+        if (width != other.width || height != other.height) {
+            throw new IllegalArgumentException("Edge maps differ in size: " + width + "x" + height + " and "
+                    + other.width + "x" + other.height);
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream output, int value) {
+        while ((value & ~0x7F) != 0) {
+            output.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.write(value);
+    }
+
+    private static int readVarint(byte[] encoded, int[] cursor) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (cursor[0] >= encoded.length) {
+                throw new IllegalArgumentException("Truncated run-length data");
+            }
+            byte b = encoded[cursor[0]++];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint at byte " + cursor[0]);
+    }
+}
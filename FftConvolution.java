@@ -0,0 +1,249 @@
+package edgedetection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Class applying a kernel to a single-channel array indexed [x][y] through
+ * the fast Fourier transform. The output is cut into blocks that are
+ * processed by overlap-save: every block is read with the kernel's margin,
+ * transformed, multiplied by the spectrum of the kernel and transformed back,
+ * and the part not disturbed by the circular wrap-around is kept. Since both
+ * the input and the kernel are real, two blocks are packed into the real and
+ * imaginary parts of one complex transform.
+ *
+ * The cost per pixel grows with the logarithm of the block size instead of
+ * the kernel area, so this beats Convolution for large kernels. The results
+ * equal Convolution.apply up to rounding.
+ */
+
+public class FftConvolution {
+
+    /**
+     * Kernel side from which FFT convolution is used by default, measured with
+     * AutoTuner.measureFftCrossover on images of one to two megapixels. The
+     * built-in 3x3 masks stay on direct convolution.
+     */
+
+    public static final int DEFAULT_CROSSOVER = 9;
+
+    private FftConvolution() {
+    }
+
+    /**
+     * Method correlates the input with the kernel centred on every pixel,
+     * reading pixels past the border like Convolution.apply
+     *
+     * @param input
+     * @param kernel
+     * @param borderMode
+     * @return output of the input's size
+     */
+
+    public static double[][] apply(double[][] input, double[][] kernel, BorderMode borderMode) {
+        int width = input.length;
+        int height = input[0].length;
+        int kernelWidth = kernel.length;
+        int kernelHeight = kernel[0].length;
+        int size = chooseSize(kernelWidth, kernelHeight, width, height);
+        int blockWidth = size - kernelWidth + 1;
+        int blockHeight = size - kernelHeight + 1;
+        Transform transform = new Transform(size);
+
+        // correlation is convolution with the flipped kernel
+        double[] kernelReal = new double[size * size];
+        double[] kernelImaginary = new double[size * size];
+        for (int i = 0; i < kernelWidth; i++) {
+            for (int j = 0; j < kernelHeight; j++) {
+                kernelReal[(kernelWidth - 1 - i) * size + kernelHeight - 1 - j] = kernel[i][j];
+            }
+        }
+        transform.transform2D(kernelReal, kernelImaginary, false);
+
+        List<int[]> blocks = new ArrayList<>();
+        for (int x = 0; x < width; x += blockWidth) {
+            for (int y = 0; y < height; y += blockHeight) {
+                blocks.add(new int[] { x, y });
+            }
+        }
+
+        double[][] output = new double[width][height];
+        double[] real = new double[size * size];
+        double[] imaginary = new double[size * size];
+        double scale = 1.0 / ((double) size * size);
+        for (int b = 0; b < blocks.size(); b += 2) {
+            int[] first = blocks.get(b);
+            int[] second = b + 1 < blocks.size() ? blocks.get(b + 1) : null;
+            readBlock(input, first, kernelWidth / 2, kernelHeight / 2, size, borderMode, real);
+            if (second != null) {
+                readBlock(input, second, kernelWidth / 2, kernelHeight / 2, size, borderMode, imaginary);
+            } else {
+                Arrays.fill(imaginary, 0);
+            }
+            transform.transform2D(real, imaginary, false);
+            for (int k = 0; k < real.length; k++) {
+                double re = real[k] * kernelReal[k] - imaginary[k] * kernelImaginary[k];
+                double im = real[k] * kernelImaginary[k] + imaginary[k] * kernelReal[k];
+                real[k] = re;
+                imaginary[k] = im;
+            }
+            transform.transform2D(real, imaginary, true);
+            writeBlock(real, first, kernelWidth, kernelHeight, size, blockWidth, blockHeight, scale, output);
+            if (second != null) {
+                writeBlock(imaginary, second, kernelWidth, kernelHeight, size, blockWidth, blockHeight, scale,
+                        output);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Method picks the power of two transform size with the lowest estimated
+     * cost per output pixel
+     *
+     * @return transform size
+     */
+
+    static int chooseSize(int kernelWidth, int kernelHeight, int width, int height) {
+        int kernelSide = Math.max(kernelWidth, kernelHeight);
+        int largest = Integer.highestOneBit(Math.max(width, height) + kernelSide - 1);
+        if (largest < Math.max(width, height) + kernelSide - 1) {
+            largest *= 2;
+        }
+        int best = 0;
+        double bestCost = Double.MAX_VALUE;
+        for (int size = 2; size <= Math.max(2, largest); size *= 2) {
+            if (size < kernelSide) {
+                continue;
+            }
+            double blocks = Math.ceil((double) width / (size - kernelWidth + 1))
+                    * Math.ceil((double) height / (size - kernelHeight + 1));
+            double cost = blocks * size * size * (Integer.numberOfTrailingZeros(size) + 1);
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = size;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Method copies the input pixels a block needs, including the kernel
+     * margin, into a size x size array, remapping those past the border
+     */
+
+    private static void readBlock(double[][] input, int[] block, int gapWidth, int gapHeight, int size,
+            BorderMode borderMode, double[] target) {
+        int width = input.length;
+        int height = input[0].length;
+        int[] rows = new int[size];
+        for (int t = 0; t < size; t++) {
+            rows[t] = borderMode.remap(block[1] - gapHeight + t, height);
+        }
+        for (int s = 0; s < size; s++) {
+            int sourceX = borderMode.remap(block[0] - gapWidth + s, width);
+            int offset = s * size;
+            if (sourceX < 0) {
+                Arrays.fill(target, offset, offset + size, 0);
+                continue;
+            }
+            double[] column = input[sourceX];
+            for (int t = 0; t < size; t++) {
+                target[offset + t] = rows[t] < 0 ? 0 : column[rows[t]];
+            }
+        }
+    }
+
+    /**
+     * Method keeps the part of a transformed block free of wrap-around
+     */
+
+    private static void writeBlock(double[] source, int[] block, int kernelWidth, int kernelHeight, int size,
+            int blockWidth, int blockHeight, double scale, double[][] output) {
+        int toX = Math.min(blockWidth, output.length - block[0]);
+        int toY = Math.min(blockHeight, output[0].length - block[1]);
+        for (int u = 0; u < toX; u++) {
+            double[] column = output[block[0] + u];
+            int offset = (u + kernelWidth - 1) * size + kernelHeight - 1;
+            for (int v = 0; v < toY; v++) {
+                column[block[1] + v] = source[offset + v] * scale;
+            }
+        }
+    }
+
+    /**
+     * Radix-2 transform of one power of two size with its twiddle factors
+     * and bit reversal precomputed
+     */
+
+    private static class Transform {
+        private final int size;
+        private final double[] cosines;
+        private final double[] sines;
+        private final int[] reversed;
+        private final double[] lineReal;
+        private final double[] lineImaginary;
+
+        Transform(int size) {
+            this.size = size;
+            cosines = new double[size / 2];
+            sines = new double[size / 2];
+            for (int k = 0; k < size / 2; k++) {
+                cosines[k] = Math.cos(2 * Math.PI * k / size);
+                sines[k] = Math.sin(2 * Math.PI * k / size);
+            }
+            reversed = new int[size];
+            int bits = Integer.numberOfTrailingZeros(size);
+            for (int k = 0; k < size; k++) {
+                reversed[k] = bits == 0 ? 0 : Integer.reverse(k) >>> (32 - bits);
+            }
+            lineReal = new double[size];
+            lineImaginary = new double[size];
+        }
+
+        /**
+         * Method transforms a size x size array stored by rows in place,
+         * the inverse transform is not scaled
+         */
+
+        void transform2D(double[] real, double[] imaginary, boolean inverse) {
+            for (int row = 0; row < size; row++) {
+                transform(real, imaginary, row * size, 1, inverse);
+            }
+            for (int column = 0; column < size; column++) {
+                transform(real, imaginary, column, size, inverse);
+            }
+        }
+
+        private void transform(double[] real, double[] imaginary, int offset, int stride, boolean inverse) {
+            for (int k = 0; k < size; k++) {
+                int source = offset + reversed[k] * stride;
+                lineReal[k] = real[source];
+                lineImaginary[k] = imaginary[source];
+            }
+            for (int length = 2; length <= size; length *= 2) {
+                int half = length / 2;
+                int step = size / length;
+                for (int start = 0; start < size; start += length) {
+                    for (int k = 0; k < half; k++) {
+                        double cos = cosines[k * step];
+                        double sin = inverse ? sines[k * step] : -sines[k * step];
+                        int even = start + k;
+                        int odd = even + half;
+                        double oddReal = lineReal[odd] * cos - lineImaginary[odd] * sin;
+                        double oddImaginary = lineReal[odd] * sin + lineImaginary[odd] * cos;
+                        lineReal[odd] = lineReal[even] - oddReal;
+                        lineImaginary[odd] = lineImaginary[even] - oddImaginary;
+                        lineReal[even] += oddReal;
+                        lineImaginary[even] += oddImaginary;
+                    }
+                }
+            }
+            for (int k = 0; k < size; k++) {
+                real[offset + k * stride] = lineReal[k];
+                imaginary[offset + k * stride] = lineImaginary[k];
+            }
+        }
+    }
+}
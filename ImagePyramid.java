@@ -0,0 +1,122 @@
+package edgedetection;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class building a Gaussian image pyramid: level 0 is the source image and
+ * every next level is smoothed with Canny.gaussianKernel and downsampled by
+ * two in both directions
+ */
+
+public class ImagePyramid {
+
+    public static final int DEFAULT_PREVIEW_SIZE = 256;
+
+    private final List<BufferedImage> levels = new ArrayList<>();
+
+    /**
+     * Builds levels until the longer side of the coarsest one is not larger
+     * than previewSize
+     *
+     * @param source
+     * @param previewSize
+     */
+
+    public ImagePyramid(BufferedImage source, int previewSize) {
+        if (previewSize < 1) {
+            throw new IllegalArgumentException("previewSize must be positive: " + previewSize);
+        }
+        levels.add(source);
+        BufferedImage level = source;
+        while (Math.max(level.getWidth(), level.getHeight()) > previewSize && level.getWidth() >= 6
+                && level.getHeight() >= 6) {
+            level = downsample(level);
+            levels.add(level);
+        }
+    }
+
+    public int getLevelCount() {
+        return levels.size();
+    }
+
+    /**
+     * @param level 0 is the full resolution image
+     * @return image of the level
+     */
+
+    public BufferedImage getLevel(int level) {
+        return levels.get(level);
+    }
+
+    /**
+     * @param level
+     * @return how many full resolution pixels one pixel of the level covers
+     *         along each axis
+     */
+
+    public int getScale(int level) {
+        return 1 << level;
+    }
+
+    /**
+     * Method keeps every second pixel, each smoothed with Canny.gaussianKernel.
+     * The kernel is evaluated only at the kept positions and the border is
+     * mirrored, so no full resolution smoothed copy is created.
+     *
+     * @param image
+     * @return smaller image
+     */
+
+    private static BufferedImage downsample(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        double[][] kernel = Canny.gaussianKernel;
+        int gap = kernel.length / 2;
+
+        int smallWidth = (width + 1) / 2;
+        int smallHeight = (height + 1) / 2;
+        int[] smallPixels = new int[smallWidth * smallHeight];
+        for (int j = 0; j < smallHeight; j++) {
+            for (int i = 0; i < smallWidth; i++) {
+                double red = 0;
+                double green = 0;
+                double blue = 0;
+                for (int ki = 0; ki < kernel.length; ki++) {
+                    int x = mirror(2 * i + ki - gap, width);
+                    for (int kj = 0; kj < kernel[0].length; kj++) {
+                        int rgb = pixels[mirror(2 * j + kj - gap, height) * width + x];
+                        double weight = kernel[ki][kj];
+                        red += ((rgb >> 16) & 0xFF) * weight;
+                        green += ((rgb >> 8) & 0xFF) * weight;
+                        blue += (rgb & 0xFF) * weight;
+                    }
+                }
+                smallPixels[j * smallWidth + i] = (toByte(red) << 16) | (toByte(green) << 8) | toByte(blue);
+            }
+        }
+        BufferedImage small = new BufferedImage(smallWidth, smallHeight, BufferedImage.TYPE_INT_RGB);
+        small.setRGB(0, 0, smallWidth, smallHeight, smallPixels, 0, smallWidth);
+        return small;
+    }
+
+    /**
+     * Method reflects an index lying outside the image back into it
+     */
+
+    private static int mirror(int index, int length) {
+        if (index < 0) {
+            return -index - 1;
+        }
+        if (index >= length) {
+            return 2 * length - index - 1;
+        }
+        return index;
+    }
+
+    private static int toByte(double value) {
+        return (int) Math.max(0, Math.min(255, Math.round(value)));
+    }
+}
@@ -0,0 +1,214 @@
+package edgedetection;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * Class detecting edges in consecutive frames of a fixed camera. Every frame
+ * is compared tile by tile with the previous one and only the tiles that
+ * changed, together with the tiles their change can reach, are detected
+ * again and patched into the cached result. The work per frame therefore
+ * follows the amount of motion rather than the frame size.
+ */
+
+public class IncrementalEdgeDetection {
+
+    public static final int DEFAULT_TILE_SIZE = 32;
+
+    private final EdgeDetection edgeDetection;
+    private final String selectedFilter;
+    private final double lowerThreshold;
+    private final double higherThreshold;
+    private final int tileSize;
+
+    private int width;
+    private int height;
+    private int[] previousPixels;
+    private BufferedImage edges;
+    private int lastRecomputedTileCount;
+
+    /**
+     * @param edgeDetection        detector with its sigma and border mode set;
+     *                             they must not change between frames
+     * @param selectedFilter
+     * @param lowerThresholdValue
+     * @param higherThresholdValue
+     */
+
+    public IncrementalEdgeDetection(EdgeDetection edgeDetection, String selectedFilter, double lowerThresholdValue,
+            double higherThresholdValue) {
+        this(edgeDetection, selectedFilter, lowerThresholdValue, higherThresholdValue, DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * @param edgeDetection
+     * @param selectedFilter
+     * @param lowerThresholdValue
+     * @param higherThresholdValue
+     * @param tileSize             side of the tiles compared between frames
+     */
+
+    public IncrementalEdgeDetection(EdgeDetection edgeDetection, String selectedFilter, double lowerThresholdValue,
+            double higherThresholdValue, int tileSize) {
+        if (!edgeDetection.isFilterSupported(selectedFilter)) {
+            throw new IllegalArgumentException("Unknown filter: " + selectedFilter);
+        }
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("tileSize must be positive: " + tileSize);
+        }
+        this.edgeDetection = edgeDetection;
+        this.selectedFilter = selectedFilter;
+        this.lowerThreshold = lowerThresholdValue;
+        this.higherThreshold = higherThresholdValue;
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * Method detects edges in the next frame. The first frame, and any frame
+     * of a different size, is processed fully.
+     *
+     * @param frame
+     * @return edge image of the frame, equal to a full detection
+     */
+
+    public BufferedImage nextFrame(BufferedImage frame) {
+        int[] pixels = frame.getRGB(0, 0, frame.getWidth(), frame.getHeight(), null, 0, frame.getWidth());
+        if (edges == null || frame.getWidth() != width || frame.getHeight() != height) {
+            width = frame.getWidth();
+            height = frame.getHeight();
+            return detectFully(frame, pixels);
+        }
+
+        boolean[][] changed = findChangedTiles(pixels);
+        boolean[][] affected = growByHalo(changed);
+        if (affected == null) {
+            return detectFully(frame, pixels);
+        }
+        lastRecomputedTileCount = 0;
+        for (int tileY = 0; tileY < tileRows(); tileY++) {
+            int tileX = 0;
+            while (tileX < tileColumns()) {
+                if (!affected[tileX][tileY]) {
+                    tileX++;
+                    continue;
+                }
+                int firstTile = tileX;
+                while (tileX < tileColumns() && affected[tileX][tileY]) {
+                    tileX++;
+                }
+                lastRecomputedTileCount += tileX - firstTile;
+                Rectangle region = new Rectangle(firstTile * tileSize, tileY * tileSize,
+                        (tileX - firstTile) * tileSize, tileSize).intersection(new Rectangle(width, height));
+                BufferedImage patch = edgeDetection.detectEdgesImage(frame, selectedFilter, lowerThreshold,
+                        higherThreshold, region);
+                edges.setRGB(region.x, region.y, region.width, region.height,
+                        patch.getRGB(0, 0, region.width, region.height, null, 0, region.width), 0, region.width);
+            }
+        }
+        previousPixels = pixels;
+        return copy(edges);
+    }
+
+    private BufferedImage detectFully(BufferedImage frame, int[] pixels) {
+        edges = edgeDetection.detectEdgesImage(frame, selectedFilter, lowerThreshold, higherThreshold);
+        previousPixels = pixels;
+        lastRecomputedTileCount = tileColumns() * tileRows();
+        return copy(edges);
+    }
+
+    /**
+     * @return number of tiles detected again for the last frame
+     */
+
+    public int getLastRecomputedTileCount() {
+        return lastRecomputedTileCount;
+    }
+
+    /**
+     * Method forgets the previous frame, so the next one is processed fully
+     */
+
+    public void reset() {
+        edges = null;
+        previousPixels = null;
+    }
+
+    private int tileColumns() {
+        return (width + tileSize - 1) / tileSize;
+    }
+
+    private int tileRows() {
+        return (height + tileSize - 1) / tileSize;
+    }
+
+    /**
+     * Method compares the frame with the previous one
+     *
+     * @param pixels
+     * @return changed[tileX][tileY]
+     */
+
+    private boolean[][] findChangedTiles(int[] pixels) {
+        boolean[][] changed = new boolean[tileColumns()][tileRows()];
+        for (int y = 0; y < height; y++) {
+            int tileY = y / tileSize;
+            int row = y * width;
+            for (int tileX = 0; tileX < tileColumns(); tileX++) {
+                if (changed[tileX][tileY]) {
+                    continue;
+                }
+                int end = row + Math.min(width, (tileX + 1) * tileSize);
+                for (int index = row + tileX * tileSize; index < end; index++) {
+                    if (pixels[index] != previousPixels[index]) {
+                        changed[tileX][tileY] = true;
+                        break;
+                    }
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Method marks every tile within the filter's dependency halo of a changed
+     * tile. The halo covers the kernels and the connection of weak pixels to
+     * strong neighbours, which in Canny reaches only one pixel. When the
+     * filter needs the whole image, with BorderMode.WRAP or Canny with a sigma
+     * set, a change can reach any pixel, so it requires the whole frame.
+     *
+     * @param changed
+     * @return affected[tileX][tileY], or null when the whole frame is needed
+     */
+
+    private boolean[][] growByHalo(boolean[][] changed) {
+        int columns = tileColumns();
+        int rows = tileRows();
+        boolean[][] affected = new boolean[columns][rows];
+        boolean wholeFrame = edgeDetection.needsWholeImage(selectedFilter);
+        int reach = (edgeDetection.getRegionHalo(selectedFilter) + tileSize - 1) / tileSize;
+        for (int tileX = 0; tileX < columns; tileX++) {
+            for (int tileY = 0; tileY < rows; tileY++) {
+                if (!changed[tileX][tileY]) {
+                    continue;
+                }
+                if (wholeFrame) {
+                    return null;
+                }
+                for (int i = Math.max(0, tileX - reach); i <= Math.min(columns - 1, tileX + reach); i++) {
+                    for (int j = Math.max(0, tileY - reach); j <= Math.min(rows - 1, tileY + reach); j++) {
+                        affected[i][j] = true;
+                    }
+                }
+            }
+        }
+        return affected;
+    }
+
+    private static BufferedImage copy(BufferedImage image) {
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        copy.setRGB(0, 0, image.getWidth(), image.getHeight(),
+                image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth()), 0,
+                image.getWidth());
+        return copy;
+    }
+}
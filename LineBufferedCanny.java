@@ -0,0 +1,231 @@
+package edgedetection;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Class running the Canny algorithm row by row. Instead of one image-sized
+ * array per stage, grayscale, smoothing and gradient keep only the few rows
+ * their successor still needs in small ring buffers, and every row moves
+ * through all stages as soon as its neighbourhood is ready. Only the source,
+ * a one byte per pixel plane of strength flags and the result span the whole
+ * image; the connection of weak pixels runs as a second pass over the flags.
+ *
+ * Every value is computed with the same operations in the same order as in
+ * Canny, so the result is identical to Canny with the 5x5 kernel and the same
+ * border mode.
+ */
+
+public class LineBufferedCanny {
+
+    private static final byte WEAK = 1;
+    private static final byte STRONG = 2;
+    private static final int GRAY_ROWS = 5;
+    private static final int RING_ROWS = 3;
+    private static final double[][] X_GRADIENT_KERNEL = { { -1, 0, 1 }, { -2, 0, 2 }, { -1, 0, 1 } };
+    private static final double[][] Y_GRADIENT_KERNEL = { { 1, 2, 1 }, { 0, 0, 0 }, { -1, -2, -1 } };
+
+    private final double lowerThreshold;
+    private final double higherThreshold;
+    private final BorderMode borderMode;
+
+    /**
+     * @param lowerThresholdValue
+     * @param higherThresholdValue
+     * @param borderMode           any mode except WRAP, whose rows are not
+     *                             available while streaming
+     */
+
+    public LineBufferedCanny(double lowerThresholdValue, double higherThresholdValue, BorderMode borderMode) {
+        if (borderMode == BorderMode.WRAP) {
+            throw new IllegalArgumentException("BorderMode.WRAP needs the whole image");
+        }
+        this.lowerThreshold = lowerThresholdValue;
+        this.higherThreshold = higherThresholdValue;
+        this.borderMode = borderMode;
+    }
+
+    /**
+     * @param sourceImage
+     * @return edge image equal to Canny.detectEdgesImage
+     */
+
+    public BufferedImage detectEdgesImage(BufferedImage sourceImage) {
+        int width = sourceImage.getWidth();
+        int height = sourceImage.getHeight();
+        byte[] flags = computeFlags(sourceImage, width, height);
+        return connectWeakPixels(flags, width, height);
+    }
+
+    /**
+     * Method streams the rows through grayscale, smoothing, gradient and
+     * non-maximum suppression. In step t source row t is read, row t - 2 is
+     * smoothed, the gradient of row t - 3 and the flags of row t - 4 are
+     * computed; each of them only needs rows written in this or earlier
+     * steps.
+     */
+
+    private byte[] computeFlags(BufferedImage sourceImage, int width, int height) {
+        byte[] flags = new byte[width * height];
+        int[] rgb = new int[width];
+        double[][] gray = new double[GRAY_ROWS][width];
+        double[][] denoised = new double[RING_ROWS][width];
+        double[][] magnitude = new double[RING_ROWS][width];
+        int[][] direction = new int[RING_ROWS][width];
+        double[] xGradient = new double[width];
+        double[] yGradient = new double[width];
+
+        for (int step = 0; step < height + 4; step++) {
+            if (step < height) {
+                sourceImage.getRGB(0, step, width, 1, rgb, 0, width);
+                double[] grayRow = gray[step % GRAY_ROWS];
+                for (int x = 0; x < width; x++) {
+                    double red = (rgb[x] >> 16) & 0xff;
+                    double green = (rgb[x] >> 8) & 0xff;
+                    double blue = rgb[x] & 0xff;
+                    grayRow[x] = (red + green + blue) / 3;
+                }
+            }
+            int smoothRow = step - 2;
+            if (smoothRow >= 0 && smoothRow < height) {
+                convolveRow(gray, GRAY_ROWS, Canny.gaussianKernel, smoothRow, width, height,
+                        denoised[smoothRow % RING_ROWS]);
+            }
+            int gradientRow = step - 3;
+            if (gradientRow >= 0 && gradientRow < height) {
+                convolveRow(denoised, RING_ROWS, X_GRADIENT_KERNEL, gradientRow, width, height, xGradient);
+                convolveRow(denoised, RING_ROWS, Y_GRADIENT_KERNEL, gradientRow, width, height, yGradient);
+                double[] magnitudeRow = magnitude[gradientRow % RING_ROWS];
+                int[] directionRow = direction[gradientRow % RING_ROWS];
+                for (int x = 0; x < width; x++) {
+                    magnitudeRow[x] = Math.sqrt(Math.pow(xGradient[x], 2) + Math.pow(yGradient[x], 2));
+                    directionRow[x] = Canny.roundDirection(Math.atan2(yGradient[x], xGradient[x]));
+                }
+            }
+            int flagRow = step - 4;
+            if (flagRow >= 0 && flagRow < height) {
+                suppressRow(magnitude, direction, flagRow, width, height, flags);
+            }
+        }
+        return flags;
+    }
+
+    /**
+     * Method computes one output row of the correlation with a kernel whose
+     * rows are indexed by x, summing in the order of Convolution
+     */
+
+    private void convolveRow(double[][] rows, int ringSize, double[][] kernel, int y, int width, int height,
+            double[] output) {
+        int gapWidth = kernel.length / 2;
+        int gapHeight = kernel[0].length / 2;
+        double[][] window = new double[kernel[0].length][];
+        boolean fullWindow = true;
+        for (int j = 0; j < window.length; j++) {
+            int sourceY = borderMode.remap(y + j - gapHeight, height);
+            window[j] = sourceY < 0 ? null : rows[sourceY % ringSize];
+            fullWindow &= window[j] != null;
+        }
+        int interiorLeft = Math.min(gapWidth, width);
+        int interiorRight = Math.max(interiorLeft, width - (kernel.length - 1 - gapWidth));
+        for (int x = 0; x < width; x++) {
+            double value = 0;
+            if (fullWindow && x >= interiorLeft && x < interiorRight) {
+                for (int i = 0; i < kernel.length; ++i) {
+                    int sourceX = x + i - gapWidth;
+                    double[] kernelColumn = kernel[i];
+                    for (int j = 0; j < kernelColumn.length; ++j) {
+                        value = value + (window[j][sourceX] * kernelColumn[j]);
+                    }
+                }
+                output[x] = value;
+                continue;
+            }
+            for (int i = 0; i < kernel.length; ++i) {
+                int sourceX = borderMode.remap(x + i - gapWidth, width);
+                if (sourceX < 0) {
+                    continue;
+                }
+                double[] kernelColumn = kernel[i];
+                for (int j = 0; j < kernelColumn.length; ++j) {
+                    if (window[j] != null) {
+                        value = value + (window[j][sourceX] * kernelColumn[j]);
+                    }
+                }
+            }
+            output[x] = value;
+        }
+    }
+
+    /**
+     * Method keeps the local maxima of one row like Canny and stores their
+     * strength flags. The outermost pixels are never kept, but still get a
+     * flag, which matters for a lower threshold of 0 or less.
+     */
+
+    private void suppressRow(double[][] magnitude, int[][] direction, int y, int width, int height, byte[] flags) {
+        double[] row = magnitude[y % RING_ROWS];
+        int[] directionRow = direction[y % RING_ROWS];
+        boolean inner = y >= 1 && y < height - 1;
+        double[] above = inner ? magnitude[(y - 1) % RING_ROWS] : null;
+        double[] below = inner ? magnitude[(y + 1) % RING_ROWS] : null;
+        int offset = y * width;
+        for (int x = 0; x < width; x++) {
+            double suppressed = 0;
+            if (inner && x >= 1 && x < width - 1) {
+                double value = row[x];
+                boolean keep = false;
+                if (directionRow[x] == 0) {
+                    keep = (value > row[x - 1]) && (value > row[x + 1]);
+                } else if (directionRow[x] == 45) {
+                    keep = (value > above[x - 1]) && (value > below[x + 1]);
+                } else if (directionRow[x] == 90) {
+                    keep = (value > below[x]) && (value > above[x]);
+                } else if (directionRow[x] == 135) {
+                    keep = (value > below[x - 1]) && (value > above[x + 1]);
+                }
+                if (keep) {
+                    suppressed = value;
+                }
+            }
+            if (suppressed >= higherThreshold) {
+                flags[offset + x] = STRONG;
+            } else if (suppressed >= lowerThreshold) {
+                flags[offset + x] = WEAK;
+            }
+        }
+    }
+
+    /**
+     * Method marks strong pixels and weak pixels with a strong neighbour,
+     * shifted by one pixel up and left like in Canny
+     */
+
+    private BufferedImage connectWeakPixels(byte[] flags, int width, int height) {
+        BufferedImage edgeImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] outputRow = new int[width];
+        int black = 0xff000000;
+        int white = 0xffffffff;
+        for (int y = 0; y < height; y++) {
+            Arrays.fill(outputRow, black);
+            int j = y + 1;
+            if (j < height - 1) {
+                for (int i = 1; i < width - 1; i++) {
+                    int index = j * width + i;
+                    if (flags[index] == STRONG || (flags[index] == WEAK && hasStrongNeighbour(flags, index, width))) {
+                        outputRow[i - 1] = white;
+                    }
+                }
+            }
+            edgeImage.setRGB(0, y, width, 1, outputRow, 0, width);
+        }
+        return edgeImage;
+    }
+
+    private static boolean hasStrongNeighbour(byte[] flags, int index, int width) {
+        return flags[index - 1] == STRONG || flags[index + 1] == STRONG || flags[index - width] == STRONG
+                || flags[index + width] == STRONG || flags[index - width - 1] == STRONG
+                || flags[index + width + 1] == STRONG || flags[index + width - 1] == STRONG
+                || flags[index - width + 1] == STRONG;
+    }
+}
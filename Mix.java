@@ -95,6 +95,21 @@ public class Mix {
         return large;
     }
 
+    /**
+     * The method takes a 2D array of gray levels and a kernel and applies a splice
+     * over the whole array, reading pixels past the border according to the
+     * border mode instead of zeroing the border of the output.
+     * 
+     * @param input
+     * @param kernel
+     * @param borderMode
+     * @return
+     */
+
+    public static double[][] mix2DBorder(double[][] input, double[][] kernel, BorderMode borderMode) {
+        return Convolution.apply(input, kernel, borderMode);
+    }
+
     /**
      * The method applies mix2DEdge to the input array
      * 
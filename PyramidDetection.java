@@ -0,0 +1,147 @@
+package edgedetection;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * Class running edge detection over an ImagePyramid from the coarsest level
+ * to full resolution, so that a preview is available after the cheapest
+ * pass and every finer level can be shown as soon as it is ready
+ */
+
+public class PyramidDetection {
+
+    public static final int DEFAULT_TILE_SIZE = 64;
+
+    /**
+     * Interface notified after every pyramid level has been processed
+     */
+
+    public interface LevelListener {
+        /**
+         * @param level 0 for full resolution
+         * @param scale full resolution pixels per level pixel along each axis
+         * @param edges edge image of the level
+         */
+        void levelCompleted(int level, int scale, BufferedImage edges);
+    }
+
+    private final EdgeDetection edgeDetection;
+    private final int tileSize;
+
+    public PyramidDetection(EdgeDetection edgeDetection) {
+        this(edgeDetection, DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * @param edgeDetection
+     * @param tileSize side of the tiles used to restrict finer levels
+     */
+
+    public PyramidDetection(EdgeDetection edgeDetection, int tileSize) {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("tileSize must be positive: " + tileSize);
+        }
+        this.edgeDetection = edgeDetection;
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * Method detects edges level by level, coarsest first.
+     * When restrictToEdges is set, a finer level is only processed in tiles
+     * whose area (plus one tile around it) held edges on the coarser level;
+     * other tiles stay empty. Without it every level is processed fully and
+     * the last result equals EdgeDetection.detectEdgesImage on the source.
+     *
+     * @param pyramid
+     * @param selectedFilter
+     * @param lowerThresholdValue
+     * @param higherThresholdValue
+     * @param restrictToEdges
+     * @param listener may be null
+     * @return full resolution edge image
+     */
+
+    public BufferedImage detect(ImagePyramid pyramid, String selectedFilter, double lowerThresholdValue,
+            double higherThresholdValue, boolean restrictToEdges, LevelListener listener) {
+        EdgeMap coarserEdges = null;
+        BufferedImage edges = null;
+        for (int level = pyramid.getLevelCount() - 1; level >= 0; level--) {
+            BufferedImage image = pyramid.getLevel(level);
+            if (restrictToEdges && coarserEdges != null) {
+                edges = detectActiveTiles(image, coarserEdges, selectedFilter, lowerThresholdValue,
+                        higherThresholdValue);
+            } else {
+                edges = edgeDetection.detectEdgesImage(image, selectedFilter, lowerThresholdValue,
+                        higherThresholdValue);
+            }
+            if (listener != null) {
+                listener.levelCompleted(level, pyramid.getScale(level), edges);
+            }
+            if (restrictToEdges && level > 0) {
+                coarserEdges = EdgeMap.fromImage(edges);
+            }
+        }
+        return edges;
+    }
+
+    /**
+     * Method processes only the tiles of the image that lie next to an edge of
+     * the coarser level, merging neighbouring active tiles of a tile row into
+     * one region that is processed with EdgeDetection's region of interest support
+     *
+     * @return edge image, empty outside active tiles
+     */
+
+    private BufferedImage detectActiveTiles(BufferedImage image, EdgeMap coarserEdges, String selectedFilter,
+            double lowerThresholdValue, double higherThresholdValue) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int tileColumns = (width + tileSize - 1) / tileSize;
+        int tileRows = (height + tileSize - 1) / tileSize;
+        boolean[][] active = findActiveTiles(coarserEdges, tileColumns, tileRows);
+
+        BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int tileY = 0; tileY < tileRows; tileY++) {
+            int tileX = 0;
+            while (tileX < tileColumns) {
+                if (!active[tileX][tileY]) {
+                    tileX++;
+                    continue;
+                }
+                int firstTile = tileX;
+                while (tileX < tileColumns && active[tileX][tileY]) {
+                    tileX++;
+                }
+                Rectangle region = new Rectangle(firstTile * tileSize, tileY * tileSize,
+                        (tileX - firstTile) * tileSize, tileSize).intersection(new Rectangle(width, height));
+                BufferedImage edges = edgeDetection.detectEdgesImage(image, selectedFilter, lowerThresholdValue,
+                        higherThresholdValue, region);
+                output.setRGB(region.x, region.y, region.width, region.height,
+                        edges.getRGB(0, 0, region.width, region.height, null, 0, region.width), 0, region.width);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Method marks tiles covering a coarse edge pixel and their eight
+     * neighbours
+     *
+     * @return active[tileX][tileY]
+     */
+
+    private boolean[][] findActiveTiles(EdgeMap coarserEdges, int tileColumns, int tileRows) {
+        boolean[][] active = new boolean[tileColumns][tileRows];
+        coarserEdges.forEachEdge((x, y) -> {
+            int tileX = Math.min(tileColumns - 1, 2 * x / tileSize);
+            int tileY = Math.min(tileRows - 1, 2 * y / tileSize);
+            for (int i = Math.max(0, tileX - 1); i <= Math.min(tileColumns - 1, tileX + 1); i++) {
+                for (int j = Math.max(0, tileY - 1); j <= Math.min(tileRows - 1, tileY + 1); j++) {
+                    active[i][j] = true;
+                }
+            }
+        });
+        return active;
+    }
+}
@@ -0,0 +1,162 @@
+package edgedetection;
+
+/**
+ * Class smoothing an image with a recursive (IIR) approximation of the
+ * Gaussian after Young and van Vliet. Every row and column is filtered by a
+ * causal and an anticausal third order pass, so the cost per pixel does not
+ * depend on sigma. Border modes other than CLAMP extend every line by a
+ * margin of MARGIN_SIGMAS sigma read through the mode.
+ */
+
+public class RecursiveGaussian {
+
+    /**
+     * Smallest sigma for which the coefficients of Young and van Vliet are
+     * defined
+     */
+
+    public static final double MIN_SIGMA = 0.5;
+
+    /**
+     * Margin in sigmas by which lines are extended past the border, the
+     * recursive response beyond it is below 1e-6 of the total
+     */
+
+    static final int MARGIN_SIGMAS = 12;
+
+    private final int margin;
+    private final double b;
+    private final double a1;
+    private final double a2;
+    private final double a3;
+
+    /**
+     * @param sigma standard deviation in pixels, at least MIN_SIGMA
+     */
+
+    public RecursiveGaussian(double sigma) {
+        if (!(sigma >= MIN_SIGMA)) {
+            throw new IllegalArgumentException("sigma must be at least " + MIN_SIGMA + ": " + sigma);
+        }
+        double q;
+        if (sigma >= 2.5) {
+            q = 0.98711 * sigma - 0.96330;
+        } else {
+            q = 3.97156 - 4.14554 * Math.sqrt(1 - 0.26891 * sigma);
+        }
+        double q2 = q * q;
+        double q3 = q2 * q;
+        double b0 = 1.57825 + 2.44413 * q + 1.4281 * q2 + 0.422205 * q3;
+        double b1 = 2.44413 * q + 2.85619 * q2 + 1.26661 * q3;
+        double b2 = -(1.4281 * q2 + 1.26661 * q3);
+        double b3 = 0.422205 * q3;
+        a1 = b1 / b0;
+        a2 = b2 / b0;
+        a3 = b3 / b0;
+        b = 1 - (a1 + a2 + a3);
+        margin = (int) Math.ceil(MARGIN_SIGMAS * sigma);
+    }
+
+    /**
+     * Method smooths a single-channel array indexed [x][y], first along x and
+     * then along y. Values beyond the border are taken equal to the border
+     * pixel.
+     *
+     * @param array
+     * @return smoothed copy
+     */
+
+    public double[][] smooth(double[][] array) {
+        int width = array.length;
+        int height = array[0].length;
+        double[][] output = new double[width][];
+        for (int i = 0; i < width; i++) {
+            output[i] = array[i].clone();
+        }
+        double[] line = new double[width];
+        for (int j = 0; j < height; j++) {
+            for (int i = 0; i < width; i++) {
+                line[i] = output[i][j];
+            }
+            filterLine(line, width);
+            for (int i = 0; i < width; i++) {
+                output[i][j] = line[i];
+            }
+        }
+        for (int i = 0; i < width; i++) {
+            filterLine(output[i], height);
+        }
+        return output;
+    }
+
+    /**
+     * Method smooths a single-channel array indexed [x][y] like the method
+     * above, reading values beyond the border through the border mode
+     *
+     * @param array
+     * @param borderMode
+     * @return smoothed copy
+     */
+
+    public double[][] smooth(double[][] array, BorderMode borderMode) {
+        if (borderMode == BorderMode.CLAMP) {
+            // the initial conditions of filterLine already continue the border pixel
+            return smooth(array);
+        }
+        int width = array.length;
+        int height = array[0].length;
+        double[][] output = new double[width][height];
+        double[] line = new double[Math.max(width, height) + 2 * margin];
+        for (int j = 0; j < height; j++) {
+            for (int t = 0; t < width + 2 * margin; t++) {
+                int sourceX = borderMode.remap(t - margin, width);
+                line[t] = sourceX < 0 ? 0 : array[sourceX][j];
+            }
+            filterLine(line, width + 2 * margin);
+            for (int i = 0; i < width; i++) {
+                output[i][j] = line[i + margin];
+            }
+        }
+        for (int i = 0; i < width; i++) {
+            double[] column = output[i];
+            for (int t = 0; t < height + 2 * margin; t++) {
+                int sourceY = borderMode.remap(t - margin, height);
+                line[t] = sourceY < 0 ? 0 : column[sourceY];
+            }
+            filterLine(line, height + 2 * margin);
+            System.arraycopy(line, margin, column, 0, height);
+        }
+        return output;
+    }
+
+    /**
+     * Method runs the causal pass forwards and the anticausal pass backwards
+     * over a line, in place
+     *
+     * @param line
+     * @param length
+     */
+
+    private void filterLine(double[] line, int length) {
+        double previous1 = line[0];
+        double previous2 = previous1;
+        double previous3 = previous1;
+        for (int i = 0; i < length; i++) {
+            double value = b * line[i] + a1 * previous1 + a2 * previous2 + a3 * previous3;
+            line[i] = value;
+            previous3 = previous2;
+            previous2 = previous1;
+            previous1 = value;
+        }
+        double next1 = line[length - 1];
+        double next2 = next1;
+        double next3 = next1;
+        for (int i = length - 1; i >= 0; i--) {
+            double value = b * line[i] + a1 * next1 + a2 * next2 + a3 * next3;
+            line[i] = value;
+            next3 = next2;
+            next2 = next1;
+            next1 = value;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package edgedetection;
 
 import java.io.IOException;
+import java.nio.file.Path;
 
 /**
  * A class that calls the program using the EdgeDetectionUI class
@@ -9,14 +10,66 @@ import java.io.IOException;
 public class RunEdgeDetection {
 
     /**
-     * Example of using the EdgeDetectionUI class
+     * Example of using the EdgeDetectionUI class.
+     * Started with "--server [port [width height]]" it runs the
+     * EdgeDetectionServer on localhost instead of the GUI; with a typical image
+     * size given, the server uses the profile chosen by the AutoTuner for it.
+     * "--tune width height [filter]" only calibrates and stores the profile.
+     * The batch modes share a queue directory between any number of worker
+     * processes:
+     * "--batch-init queueDir inputDir outputDir filter lower higher [sigma]",
+     * "--batch-work queueDir [threads]" and "--batch-status queueDir".
      * 
      * @param args
      * @exception IOException
+     * @exception InterruptedException
      */
 
-    public static void main(String[] args) throws IOException {
+    public static void main(String[] args) throws IOException, InterruptedException {
         System.out.println("Working Directory = " + System.getProperty("user.dir"));
+        if (args.length > 0 && args[0].equals("--server")) {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : EdgeDetectionServer.DEFAULT_PORT;
+            EdgeDetectionServer server = new EdgeDetectionServer(port, Runtime.getRuntime().availableProcessors());
+            if (args.length > 3) {
+                server.setProfile(tune(Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+                        EdgeDetection.CANNY_EDGE_DETECTION));
+            }
+            server.start();
+            System.out.println("Edge detection server listening on http://localhost:" + server.getPort());
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--tune")) {
+            tune(Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+                    args.length > 3 ? args[3] : EdgeDetection.CANNY_EDGE_DETECTION);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--batch-init")) {
+            BatchQueue queue = BatchQueue.create(Path.of(args[1]), Path.of(args[2]), Path.of(args[3]), args[4],
+                    Double.parseDouble(args[5]), Double.parseDouble(args[6]),
+                    args.length > 7 ? Double.parseDouble(args[7]) : Canny.DEFAULT_SIGMA,
+                    BatchQueue.DEFAULT_LEASE_MILLIS);
+            System.out.println(queue.status());
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--batch-work")) {
+            BatchWorker worker = new BatchWorker(BatchQueue.open(Path.of(args[1])), BatchWorker.defaultWorkerId());
+            int processed = worker.run(args.length > 2 ? Integer.parseInt(args[2]) : 1);
+            System.out.println("Processed " + processed + " images");
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--batch-status")) {
+            System.out.println(BatchQueue.open(Path.of(args[1])).status());
+            return;
+        }
         new EdgeDetectionUI();
     }
+
+    private static DetectionProfile tune(int width, int height, String selectedFilter)
+            throws IOException, InterruptedException {
+        AutoTuner tuner = new AutoTuner(new EdgeDetection(), width, height, selectedFilter,
+                EdgeDetection.LOWER_THRESHOLD, EdgeDetection.HIGHER_THRESHOLD, AutoTuner.DEFAULT_TIME_BUDGET_MILLIS);
+        DetectionProfile profile = tuner.loadOrCalibrate(AutoTuner.DEFAULT_PROFILE_FILE);
+        System.out.println("Profile for " + tuner.getProfileKey() + ": " + profile);
+        return profile;
+    }
 }
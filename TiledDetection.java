@@ -0,0 +1,146 @@
+package edgedetection;
+
+import javax.imageio.ImageIO;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Class detecting edges in an image file tile by tile. Every tile is decoded
+ * with its halo, processed and copied into the result before the next one is
+ * read, so apart from the result only one tile is in memory. The result
+ * equals a full-image detection. Filters needing the whole image, with
+ * BorderMode.WRAP or Canny with a sigma set, are not tiled but detected on
+ * the whole image at once.
+ *
+ * An image already in memory can instead be split into tiles processed by
+ * several threads at once.
+ */
+
+public class TiledDetection {
+
+    public static final int DEFAULT_TILE_SIZE = 512;
+
+    private final EdgeDetection edgeDetection;
+    private final int tileSize;
+
+    public TiledDetection(EdgeDetection edgeDetection) {
+        this(edgeDetection, DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * @param edgeDetection
+     * @param tileSize side of the square tiles
+     */
+
+    public TiledDetection(EdgeDetection edgeDetection, int tileSize) {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("tileSize must be positive: " + tileSize);
+        }
+        this.edgeDetection = edgeDetection;
+        this.tileSize = tileSize;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * @param imageFile
+     * @param width                width of the image in the file
+     * @param height               height of the image in the file
+     * @param selectedFilter
+     * @param lowerThresholdValue
+     * @param higherThresholdValue
+     * @return edge image
+     * @exception IOException
+     */
+
+    public BufferedImage detect(File imageFile, int width, int height, String selectedFilter,
+            double lowerThresholdValue, double higherThresholdValue) throws IOException {
+        if (edgeDetection.needsWholeImage(selectedFilter)) {
+            BufferedImage image = ImageIO.read(imageFile);
+            if (image == null) {
+                throw new IOException("Cannot decode " + imageFile);
+            }
+            return edgeDetection.detectEdgesImage(image, selectedFilter, lowerThresholdValue, higherThresholdValue);
+        }
+        BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        edgeDetection.detectEdgesInRegions(imageFile, selectedFilter, lowerThresholdValue, higherThresholdValue,
+                tiles(width, height), (region, edges) -> output.setRGB(region.x, region.y, region.width,
+                        region.height, edges.getRGB(0, 0, region.width, region.height, null, 0, region.width), 0,
+                        region.width));
+        return output;
+    }
+
+    /**
+     * Method detects edges in an image kept in memory, processing its tiles
+     * in parallel
+     *
+     * @param image
+     * @param selectedFilter
+     * @param lowerThresholdValue
+     * @param higherThresholdValue
+     * @param threads              number of tiles processed at the same time
+     * @return edge image, equal to a full-image detection
+     * @exception InterruptedException
+     */
+
+    public BufferedImage detect(BufferedImage image, String selectedFilter, double lowerThresholdValue,
+            double higherThresholdValue, int threads) throws InterruptedException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        if (edgeDetection.needsWholeImage(selectedFilter)) {
+            return edgeDetection.detectEdgesImage(image, selectedFilter, lowerThresholdValue, higherThresholdValue);
+        }
+        BufferedImage output = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Rectangle tile : tiles(image.getWidth(), image.getHeight())) {
+                // the tiles are disjoint, so the threads never write the same pixel
+                futures.add(executor.submit(() -> {
+                    BufferedImage edges = edgeDetection.detectEdgesImage(image, selectedFilter, lowerThresholdValue,
+                            higherThresholdValue, tile);
+                    output.setRGB(tile.x, tile.y, tile.width, tile.height,
+                            edges.getRGB(0, 0, tile.width, tile.height, null, 0, tile.width), 0, tile.width);
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return output;
+    }
+
+    /**
+     * @param width
+     * @param height
+     * @return tiles covering the image, row by row
+     */
+
+    List<Rectangle> tiles(int width, int height) {
+        List<Rectangle> tiles = new ArrayList<>();
+        for (int y = 0; y < height; y += tileSize) {
+            for (int x = 0; x < width; x += tileSize) {
+                tiles.add(new Rectangle(x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y)));
+            }
+        }
+        return tiles;
+    }
+}
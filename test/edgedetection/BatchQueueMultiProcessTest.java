@@ -0,0 +1,175 @@
+package edgedetection;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Test running several JVMs against one BatchQueue directory. It checks that
+ * an expired lease is taken over by exactly one of several processes racing
+ * for it, and that worker processes finish a queue even when one of them is
+ * killed in the middle of its work.
+ *
+ * Run with the compiled classes on the class path:
+ * java -cp out edgedetection.BatchQueueMultiProcessTest
+ */
+
+public class BatchQueueMultiProcessTest {
+
+    private static final int PROCESSES = 4;
+    private static final int RACE_TRIALS = 10;
+    private static final long LEASE_MILLIS = 1500;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--claim")) {
+            claimAt(Path.of(args[1]), Long.parseLong(args[2]), args[3]);
+            return;
+        }
+        Path root = Files.createTempDirectory("batch-queue-test");
+        try {
+            testExpiredLeaseHasOneNewOwner(root.resolve("race"));
+            testKilledWorkerIsTakenOver(root.resolve("run"));
+        } finally {
+            deleteRecursively(root);
+        }
+        System.out.println("BatchQueueMultiProcessTest passed");
+    }
+
+    /**
+     * Several processes claim the only item of a queue at the same moment
+     * while its lease is expired; exactly one may get it
+     */
+
+    private static void testExpiredLeaseHasOneNewOwner(Path directory) throws Exception {
+        for (int trial = 0; trial < RACE_TRIALS; trial++) {
+            Path trialDir = directory.resolve(String.valueOf(trial));
+            BatchQueue queue = createQueue(trialDir, 1);
+            String id = queue.claim("crashed");
+            check(id != null, "the first claim must succeed");
+            Path lease = trialDir.resolve("queue").resolve("leases").resolve(id).resolve("0");
+            Files.setLastModifiedTime(lease, FileTime.fromMillis(System.currentTimeMillis() - 2 * LEASE_MILLIS));
+
+            long startMillis = System.currentTimeMillis() + 1500;
+            List<Process> processes = new ArrayList<>();
+            for (int p = 0; p < PROCESSES; p++) {
+                processes.add(startJava("--claim", trialDir.resolve("queue").toString(), String.valueOf(startMillis),
+                        "worker" + p));
+            }
+            List<String> owners = new ArrayList<>();
+            for (int p = 0; p < processes.size(); p++) {
+                String result = readOutput(processes.get(p));
+                if (!result.equals("null")) {
+                    owners.add("worker" + p);
+                }
+            }
+            check(owners.size() == 1, "trial " + trial + ": expected one new owner, got " + owners);
+            check(!queue.renew(id, "crashed"), "the crashed worker must have lost its lease");
+            check(queue.renew(id, owners.get(0)), "the new owner must be able to renew");
+        }
+    }
+
+    /**
+     * Several worker processes run the whole queue while one of them is
+     * killed; the others take over its items and every output is written
+     */
+
+    private static void testKilledWorkerIsTakenOver(Path directory) throws Exception {
+        int images = 12;
+        createQueue(directory, images);
+        String queueDir = directory.resolve("queue").toString();
+        List<Process> workers = new ArrayList<>();
+        for (int p = 0; p < PROCESSES; p++) {
+            workers.add(startJava("--batch-work", queueDir));
+        }
+        Thread.sleep(1000);
+        workers.get(0).destroyForcibly().waitFor();
+        for (int p = 1; p < workers.size(); p++) {
+            String output = readOutput(workers.get(p));
+            check(workers.get(p).exitValue() == 0, "worker " + p + " failed: " + output);
+        }
+        BatchQueue.Status status = BatchQueue.open(directory.resolve("queue")).status();
+        check(status.isFinished() && status.getDone() == images, "queue not finished: " + status);
+        for (int k = 0; k < images; k++) {
+            File output = directory.resolve("out").resolve("image" + k + "_edges.png").toFile();
+            check(ImageIO.read(output) != null, "missing output " + output);
+        }
+    }
+
+    /**
+     * Child process: waits for the common start time and claims once
+     */
+
+    private static void claimAt(Path queueDir, long startMillis, String workerId) throws Exception {
+        BatchQueue queue = BatchQueue.open(queueDir);
+        long wait = startMillis - System.currentTimeMillis();
+        if (wait > 0) {
+            Thread.sleep(wait);
+        }
+        System.out.println(queue.claim(workerId));
+    }
+
+    private static BatchQueue createQueue(Path directory, int images) throws IOException {
+        Path input = directory.resolve("in");
+        Files.createDirectories(input);
+        for (int k = 0; k < images; k++) {
+            BufferedImage image = new BufferedImage(96, 64, BufferedImage.TYPE_INT_RGB);
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    image.setRGB(x, y, (x + k * 7) % 32 < 16 ? 0xffffff : 0x202020);
+                }
+            }
+            ImageIO.write(image, "png", input.resolve("image" + k + ".png").toFile());
+        }
+        return BatchQueue.create(directory.resolve("queue"), input, directory.resolve("out"), "Canny Algorithm",
+                8.82, 44.1, Canny.DEFAULT_SIGMA, LEASE_MILLIS);
+    }
+
+    private static Process startJava(String... args) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(args[0].equals("--claim") ? BatchQueueMultiProcessTest.class.getName()
+                : RunEdgeDetection.class.getName());
+        command.addAll(List.of(args));
+        return new ProcessBuilder(command).redirectErrorStream(true).start();
+    }
+
+    private static String readOutput(Process process) throws IOException, InterruptedException {
+        StringBuilder output = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.append(line).append('\n');
+            }
+        }
+        process.waitFor();
+        return output.toString().trim();
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private static void deleteRecursively(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
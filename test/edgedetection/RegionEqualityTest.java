@@ -0,0 +1,161 @@
+package edgedetection;
+
+import javax.imageio.ImageIO;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Test checking that detections of parts of an image, tiled detections and
+ * incremental detections of a changed frame equal the matching part of a
+ * full-image detection, for the filters, border
+ * modes and sigmas whose regions are computed with a margin and for those
+ * needing the whole image.
+ *
+ * Run with the compiled classes on the class path:
+ * java -cp out edgedetection.RegionEqualityTest
+ */
+
+public class RegionEqualityTest {
+
+    private static final int WIDTH = 400;
+    private static final int HEIGHT = 300;
+    private static final double LOWER = 8.82;
+    private static final double HIGHER = 44.1;
+    private static final int TILE_SIZE = 64;
+    private static final Rectangle[] REGIONS = { new Rectangle(0, 0, 90, 70), new Rectangle(150, 100, 64, 64),
+            new Rectangle(330, 240, 200, 200), new Rectangle(199, 0, 1, 300) };
+
+    public static void main(String[] args) throws Exception {
+        BufferedImage image = createRampImage();
+        File imageFile = File.createTempFile("region-equality", ".png");
+        try {
+            ImageIO.write(image, "png", imageFile);
+            for (Setting setting : settings()) {
+                checkRegions(setting, image, imageFile);
+            }
+        } finally {
+            Files.deleteIfExists(imageFile.toPath());
+        }
+        System.out.println("RegionEqualityTest passed");
+    }
+
+    /**
+     * Detector settings covered by the test
+     */
+
+    static class Setting {
+        final String filter;
+        final BorderMode borderMode;
+        final double sigma;
+
+        Setting(String filter, BorderMode borderMode, double sigma) {
+            this.filter = filter;
+            this.borderMode = borderMode;
+            this.sigma = sigma;
+        }
+
+        EdgeDetection createDetection() {
+            EdgeDetection edgeDetection = new EdgeDetection();
+            edgeDetection.setBorderMode(borderMode);
+            if (EdgeDetection.CANNY_EDGE_DETECTION.equals(filter)) {
+                edgeDetection.setSigma(sigma);
+            }
+            return edgeDetection;
+        }
+
+        @Override
+        public String toString() {
+            return filter + ", border " + borderMode + ", sigma " + sigma;
+        }
+    }
+
+    static List<Setting> settings() {
+        return List.of(new Setting(EdgeDetection.CANNY_EDGE_DETECTION, null, Canny.DEFAULT_SIGMA),
+                new Setting(EdgeDetection.CANNY_EDGE_DETECTION, BorderMode.ZERO, Canny.DEFAULT_SIGMA),
+                new Setting(EdgeDetection.CANNY_EDGE_DETECTION, BorderMode.WRAP, Canny.DEFAULT_SIGMA),
+                new Setting(EdgeDetection.CANNY_EDGE_DETECTION, null, 0.5),
+                new Setting(EdgeDetection.CANNY_EDGE_DETECTION, BorderMode.MIRROR, 2.5),
+                new Setting(EdgeDetection.SOBEL_VERTICAL, null, Canny.DEFAULT_SIGMA),
+                new Setting(EdgeDetection.SOBEL_VERTICAL, BorderMode.WRAP, Canny.DEFAULT_SIGMA));
+    }
+
+    private static void checkRegions(Setting setting, BufferedImage image, File imageFile) throws Exception {
+        EdgeDetection edgeDetection = setting.createDetection();
+        BufferedImage full = edgeDetection.detectEdgesImage(image, setting.filter, LOWER, HIGHER);
+        List<BufferedImage> fromFile = edgeDetection.detectEdgesInRegions(imageFile, setting.filter, LOWER, HIGHER,
+                REGIONS);
+        for (int k = 0; k < REGIONS.length; k++) {
+            Rectangle region = REGIONS[k].intersection(new Rectangle(WIDTH, HEIGHT));
+            BufferedImage inMemory = edgeDetection.detectEdgesImage(image, setting.filter, LOWER, HIGHER,
+                    REGIONS[k]);
+            checkEqual(full, region, inMemory, setting + ", region " + region);
+            checkEqual(full, region, fromFile.get(k), setting + ", region " + region + " from file");
+        }
+
+        TiledDetection tiledDetection = new TiledDetection(edgeDetection, TILE_SIZE);
+        Rectangle bounds = new Rectangle(WIDTH, HEIGHT);
+        checkEqual(full, bounds, tiledDetection.detect(image, setting.filter, LOWER, HIGHER, 2),
+                setting + ", tiles in memory");
+        checkEqual(full, bounds, tiledDetection.detect(imageFile, WIDTH, HEIGHT, setting.filter, LOWER, HIGHER),
+                setting + ", tiles from file");
+
+        IncrementalEdgeDetection incremental = new IncrementalEdgeDetection(edgeDetection, setting.filter, LOWER,
+                HIGHER);
+        incremental.nextFrame(image);
+        BufferedImage changed = createRampImage();
+        for (int y = 40; y < 60; y++) {
+            for (int x = 300; x < 330; x++) {
+                changed.setRGB(x, y, 0xffffff);
+            }
+        }
+        checkEqual(edgeDetection.detectEdgesImage(changed, setting.filter, LOWER, HIGHER), bounds,
+                incremental.nextFrame(changed), setting + ", incremental frame");
+    }
+
+    /**
+     * Method fails when the part of the image differs from the region of the
+     * full result
+     */
+
+    static void checkEqual(BufferedImage full, Rectangle region, BufferedImage part, String description) {
+        int differences = 0;
+        for (int y = 0; y < region.height; y++) {
+            for (int x = 0; x < region.width; x++) {
+                if (full.getRGB(region.x + x, region.y + y) != part.getRGB(x, y)) {
+                    differences++;
+                }
+            }
+        }
+        if (differences > 0) {
+            throw new AssertionError(description + ": " + differences + " pixels differ from the full image");
+        }
+    }
+
+    /**
+     * @return steep grey ramps with stripes and a disc, whose constant
+     *         gradients make suppression sensitive to tiny differences of the
+     *         smoothing
+     */
+
+    static BufferedImage createRampImage() {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int gray = (x + 2 * y) % 256;
+                if (x % 50 < 25) {
+                    gray = Math.min(255, gray + 40);
+                }
+                int dx = x - 200;
+                int dy = y - 150;
+                if (dx * dx + dy * dy < 60 * 60) {
+                    gray = 255 - gray;
+                }
+                image.setRGB(x, y, gray * 0x010101);
+            }
+        }
+        return image;
+    }
+}